@@ -0,0 +1,174 @@
+package kaleidoscope;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The whole state of a Model, as saved to and restored from a file, so
+ * that a long run can be stopped and carried on later exactly where it
+ * left off.
+ * <p>
+ * The file is memory-mapped, and each of the FigureStore's arrays is
+ * copied to or from the mapped pages as one block with bulk IntBuffer
+ * transfers, so saving and restoring take little more than the time to
+ * move the bytes. The layout, in little-endian order, is:
+ * <ul>
+ * <li>A header of HEADER_SIZE bytes: the int MAGIC, the int VERSION,
+ * the number of figures n, the flags (bit 0 set if collisions are on),
+ * the tick as a long, the state of the SeededRandom as a long, the
+ * speed factor as a float, the width and height of the display as
+ * ints, and an int of zero.</li>
+ * <li>The n x positions, y positions, x deltas, y deltas, initial x
+ * deltas, initial y deltas, x limits, y limits, widths and heights,
+ * each as n ints.</li>
+ * <li>The n figure type codes as bytes.</li>
+ * </ul>
+ * A checkpoint is written to a temporary file which then replaces the
+ * old one, so a crash while saving leaves the previous checkpoint.
+ */
+final class Checkpoint {
+    /** The first int of every checkpoint. */
+    static final int MAGIC = 0x4B434B50;
+    /** The version of the layout. */
+    static final int VERSION = 1;
+    /** The number of bytes before the figures' arrays. */
+    static final int HEADER_SIZE = 48;
+    /** The flag set when collisions are on. */
+    static final int COLLISIONS_FLAG = 1;
+    /** The most ints of an array that are mapped at once. */
+    private static final int REGION_INTS = 64 * 1024 * 1024;
+    long tick;
+    long randomState;
+    float speedFactor;
+    int width;
+    int height;
+    boolean collisionsEnabled;
+    /** The figures, whose first size entries are saved. */
+    FigureStore figures;
+
+    /**
+     * Returns the arrays of a store in the order they are saved
+     * @param store The store
+     * @return The store's int arrays
+     */
+    private static int[][] arraysOf(FigureStore store) {
+        return new int[][] {store.xPosition, store.yPosition, store.xDelta, store.yDelta,
+                store.xDelta0, store.yDelta0, store.xLimit, store.yLimit, store.width, store.height};
+    }
+
+    /**
+     * Writes the checkpoint to a file, replacing the file if it exists
+     * @param path The file to write
+     * @throws IOException If the file can't be written
+     */
+    void write(File path) throws IOException {
+        int count = figures.size;
+        Path target = path.toPath();
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer header = map(channel, FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(count)
+                    .putInt(collisionsEnabled ? COLLISIONS_FLAG : 0)
+                    .putLong(tick).putLong(randomState).putFloat(speedFactor)
+                    .putInt(width).putInt(height).putInt(0);
+            long offset = HEADER_SIZE;
+            for (int[] array : arraysOf(figures)) {
+                for (int done = 0; done < count; ) {
+                    int n = Math.min(count - done, REGION_INTS);
+                    map(channel, FileChannel.MapMode.READ_WRITE, offset, 4L * n).asIntBuffer().put(array, done, n);
+                    offset += 4L * n;
+                    done += n;
+                }
+            }
+            if (count > 0) {
+                map(channel, FileChannel.MapMode.READ_WRITE, offset, count).put(figures.type, 0, count);
+            }
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a checkpoint from a file
+     * @param path The file to read
+     * @return The checkpoint, with a store of exactly the saved figures
+     * @throws IOException If the file can't be read, or isn't a whole checkpoint
+     */
+    static Checkpoint read(File path) throws IOException {
+        FileChannel channel = FileChannel.open(path.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException(path + " is not a kaleidoscope checkpoint");
+            }
+            MappedByteBuffer header = map(channel, FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(path + " is not a kaleidoscope checkpoint");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(path + " is a checkpoint of unknown version " + version);
+            }
+            int count = header.getInt();
+            if (count < 0 || channel.size() != HEADER_SIZE + 41L * count) {
+                throw new IOException(path + " is not a whole checkpoint");
+            }
+            Checkpoint checkpoint = new Checkpoint();
+            checkpoint.collisionsEnabled = (header.getInt() & COLLISIONS_FLAG) != 0;
+            checkpoint.tick = header.getLong();
+            checkpoint.randomState = header.getLong();
+            checkpoint.speedFactor = header.getFloat();
+            checkpoint.width = header.getInt();
+            checkpoint.height = header.getInt();
+            FigureStore store = new FigureStore(count);
+            store.size = count;
+            long offset = HEADER_SIZE;
+            for (int[] array : arraysOf(store)) {
+                for (int done = 0; done < count; ) {
+                    int n = Math.min(count - done, REGION_INTS);
+                    map(channel, FileChannel.MapMode.READ_ONLY, offset, 4L * n).asIntBuffer().get(array, done, n);
+                    offset += 4L * n;
+                    done += n;
+                }
+            }
+            if (count > 0) {
+                map(channel, FileChannel.MapMode.READ_ONLY, offset, count).get(store.type, 0, count);
+            }
+            for (int i = 0; i < count; i++) {
+                if (store.type[i] < 0 || store.type[i] >= FigureType.ALL.length) {
+                    throw new IOException(path + " has a figure of unknown type " + store.type[i]);
+                }
+            }
+            checkpoint.figures = store;
+            return checkpoint;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Maps part of a checkpoint file
+     * @param channel The file
+     * @param mode Whether to read or write the part
+     * @param offset The byte offset of the part
+     * @param size The size of the part in bytes
+     * @return The mapping, in little-endian order
+     * @throws IOException If the part can't be mapped
+     */
+    private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long offset, long size)
+            throws IOException {
+        MappedByteBuffer buffer = channel.map(mode, offset, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+}
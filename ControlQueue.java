@@ -0,0 +1,139 @@
+package kaleidoscope;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The control inputs waiting to be applied to a Model: new limits, a
+ * new speed factor, and collisions on or off. Any number of threads may
+ * post inputs, and the thread that steps the model takes them all once
+ * per tick.
+ * <p>
+ * Only the latest input of each kind matters, so rather than a queue of
+ * every input there is one slot per kind, and a bit per kind saying
+ * which slots hold an input not yet taken. Posting writes the slot and
+ * then sets the bit; taking clears all the bits at once and then reads
+ * the slots. A slider dragged across a dozen values between two ticks
+ * thus costs one pass over the figures, not a dozen. Neither side takes
+ * a lock or allocates. If an input is posted while the inputs are being
+ * taken, the taker may see its value early, and it is then applied
+ * again at the next tick, which does no harm.
+ */
+final class ControlQueue {
+    /** The bit for new limits. */
+    static final int LIMITS = 1;
+    /** The bit for a new speed factor. */
+    static final int SPEED = 2;
+    /** The bit for turning collisions on or off. */
+    static final int COLLISIONS = 4;
+    private final AtomicInteger pending = new AtomicInteger();
+    /** The width in the high 32 bits and the height in the low. */
+    private volatile long limits;
+    private volatile float speedFactor;
+    private volatile boolean collisionsEnabled;
+    /** The number of inputs replaced by a later one before they were taken. */
+    private volatile long coalesced;
+
+    /**
+     * Posts new limits
+     * @param width The width of the display
+     * @param height The height of the display
+     */
+    void postLimits(int width, int height) {
+        limits = ((long) width << 32) | (height & 0xFFFFFFFFL);
+        markPending(LIMITS);
+    }
+
+    /**
+     * Posts a new speed factor
+     * @param speedFactor The multiple of their initial speeds for the figures to move at
+     */
+    void postSpeed(float speedFactor) {
+        this.speedFactor = speedFactor;
+        markPending(SPEED);
+    }
+
+    /**
+     * Posts collisions on or off
+     * @param enabled true to bounce figures off each other
+     */
+    void postCollisions(boolean enabled) {
+        collisionsEnabled = enabled;
+        markPending(COLLISIONS);
+    }
+
+    /**
+     * Sets the bit for an input whose slot has just been written
+     * @param kind The bit for the kind of input
+     */
+    private void markPending(int kind) {
+        while (true) {
+            int bits = pending.get();
+            if ((bits & kind) != 0) {
+                coalesced++;
+                return;
+            }
+            if (pending.compareAndSet(bits, bits | kind)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Tells whether any inputs are waiting
+     * @return true if take would return some bits
+     */
+    boolean isPending() {
+        return pending.get() != 0;
+    }
+
+    /**
+     * Takes all the waiting inputs. Only the thread stepping the model
+     * may call this. Their values are then read with the getters.
+     * @return The bits of the kinds of input that were waiting
+     */
+    int take() {
+        return pending.getAndSet(0);
+    }
+
+    /**
+     * Returns the latest width posted
+     * @return The width of the display
+     */
+    int getWidth() {
+        return (int) (limits >> 32);
+    }
+
+    /**
+     * Returns the latest height posted
+     * @return The height of the display
+     */
+    int getHeight() {
+        return (int) limits;
+    }
+
+    /**
+     * Returns the latest speed factor posted
+     * @return The speed factor
+     */
+    float getSpeedFactor() {
+        return speedFactor;
+    }
+
+    /**
+     * Returns whether collisions were last turned on or off
+     * @return true if collisions were turned on
+     */
+    boolean isCollisionsEnabled() {
+        return collisionsEnabled;
+    }
+
+    /**
+     * Returns how many inputs were replaced by a later input of the
+     * same kind before they were applied. The count may miss a few
+     * inputs posted at the same moment from different threads.
+     * @return The number of inputs coalesced away
+     */
+    long getCoalesced() {
+        return coalesced;
+    }
+}
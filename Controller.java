@@ -1,7 +1,7 @@
 /**
  * This is an example of the basic "Bouncing Ball" animation, making
- * use of the Model-View-Controller design pattern and the Timer and
- * Observer/Observable classes.
+ * use of the Model-View-Controller design pattern, a simulation clock
+ * and a listener interface through which the View hears of changes.
  */
 package kaleidoscope;
 
@@ -12,8 +12,12 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
-import java.util.Timer;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
 
+import javax.management.JMException;
 import javax.swing.*;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
@@ -31,6 +35,8 @@ public class Controller extends JFrame {
     JPanel buttonPanel = new JPanel();
     JButton runButton = new JButton("Run");
     JButton stopButton = new JButton("Stop");
+    JButton addButton = new JButton("More");
+    JButton removeButton = new JButton("Fewer");
     JLabel ballColorLabel = new JLabel("Ball color: ");
     JComboBox<String> ballColor = new JComboBox<String>(new String[] {"Green", "Red", "Blue"});
     JLabel rectColorLabel = new JLabel("Rectangle color: ");
@@ -41,7 +47,8 @@ public class Controller extends JFrame {
     JComboBox<String> bgColor = new JComboBox<String>(new String[] {"White", "Black", "Gray"});
     JLabel speedLabel = new JLabel("Speed: ");
     JSlider speedSlider = new JSlider(5, 125);
-    Timer timer;
+    JCheckBox statsBox = new JCheckBox("Stats");
+    JCheckBox collideBox = new JCheckBox("Collide");
 
     /** The Model is the object that does all the computations. It is
      * completely independent of the Controller and View objects. */
@@ -49,6 +56,27 @@ public class Controller extends JFrame {
     
     /** The View object displays what is happening in the Model. */
     View view;
+
+    /** Plays back a recording in place of the Model, or null if there is none. */
+    Replayer replayer;
+
+    /** Advances the replayer while it is playing. */
+    Timer replayTimer;
+
+    /** Where the model is restored from and saved to on closing, or null. */
+    File checkpoint;
+
+    /** How long after a resize the Model is given the new limits, in milliseconds. */
+    static final int RESIZE_DELAY = 50;
+
+    /** Gives the Model the view's size, once for each burst of resizes. */
+    Timer resizeTimer;
+
+    /** The name of the engine to step the Model with, or null for the Model's choice. */
+    String engine;
+
+    /** The number of figures in each chunk the "fj" engine steps. */
+    int grainSize = ForkJoinStepEngine.DEFAULT_GRAIN_SIZE;
     
     /**
      * Constructor
@@ -59,10 +87,51 @@ public class Controller extends JFrame {
     
     /**
      * Runs the bouncing ball program.
-     * @param args Ignored.
+     * @param args Empty to open the window; --replay file to open it
+     * playing back a recording made with HeadlessRenderer's --record;
+     * --checkpoint file to carry on from the checkpoint in file, if there
+     * is one, and save a new one there when the window is closed;
+     * --engine serial|fj|vector to step the figures with the scalar loop,
+     * on a ForkJoinPool, or with the Vector API, and --grain n to make
+     * the fork-join engine step n figures per task;
+     * --headless (followed by the options described in HeadlessRenderer)
+     * to render frames without one. Any other option is rejected.
+     * @throws IllegalArgumentException If an option is unknown
+     * @throws Exception If headless rendering fails, or the recording can't be read
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--headless")) {
+            HeadlessRenderer.main(args);
+            return;
+        }
+        File replay = null;
+        File checkpoint = null;
+        String engine = null;
+        int grainSize = ForkJoinStepEngine.DEFAULT_GRAIN_SIZE;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--replay")) {
+                replay = new File(args[++i]);
+            }
+            else if (args[i].equals("--checkpoint")) {
+                checkpoint = new File(args[++i]);
+            }
+            else if (args[i].equals("--engine")) {
+                engine = args[++i];
+            }
+            else if (args[i].equals("--grain")) {
+                grainSize = Integer.parseInt(args[++i]);
+            }
+            else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
         Controller c = new Controller();
+        c.checkpoint = checkpoint;
+        c.engine = engine;
+        c.grainSize = grainSize;
+        if (replay != null) {
+            c.replayer = new Replayer(replay);
+        }
         c.init();
         c.display();
     }
@@ -71,9 +140,58 @@ public class Controller extends JFrame {
      * Sets up communication between the components.
      */
     private void init() {
-        model = new Model();     // The model is independent from the other classes
+        if (replayer != null) {
+            // The model only supplies the sizes of the figures and the metrics
+            model = new Model(replayer.getFigureCount());
+        }
+        else if (checkpoint != null && checkpoint.exists()) {
+            try {
+                model = Model.restoreCheckpoint(checkpoint);
+            } catch (IOException e) {
+                System.err.println("Starting afresh: " + e);
+                model = new Model();
+            }
+        }
+        else {
+            model = new Model(); // The model is independent from the other classes
+        }
+        if (engine != null) {
+            model.setStepEngine(StepEngines.named(engine, grainSize));
+        }
         view = new View(model);  // The view needs to know what model to look at
-        model.addObserver(view); // The model needs to give permission to be observed
+        model.addModelListener(view); // The model needs to know who to tell of changes
+        if (replayer != null) {
+            view.setSnapshotSource(replayer);
+            replayTimer = new Timer(40, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent event) {
+                    advanceReplay();
+                }
+            });
+            advanceReplay();
+        }
+        try {
+            model.getMetrics().registerMBean();
+        } catch (JMException e) {
+            System.err.println("Metrics are not available over JMX: " + e);
+        }
+    }
+
+    /**
+     * Shows the next record of the recording, stopping at its end.
+     */
+    private void advanceReplay() {
+        try {
+            if (!replayer.advance()) {
+                replayTimer.stop();
+                runButton.setEnabled(false);
+                stopButton.setEnabled(false);
+            }
+        } catch (IOException e) {
+            System.err.println("Replay stopped: " + e);
+            replayTimer.stop();
+        }
+        view.repaint();
     }
 
     /**
@@ -96,6 +214,10 @@ public class Controller extends JFrame {
         this.add(BorderLayout.SOUTH, buttonPanel);
         buttonPanel.add(runButton);
         buttonPanel.add(stopButton);
+        if (replayer == null) {
+            buttonPanel.add(addButton);
+            buttonPanel.add(removeButton);
+        }
         buttonPanel.add(ballColorLabel);
         buttonPanel.add(ballColor);
         rectColor.setSelectedItem("Blue");
@@ -108,42 +230,98 @@ public class Controller extends JFrame {
         buttonPanel.add(bgColorLabel);
         buttonPanel.add(bgColor);
         buttonPanel.add(speedLabel);
-        speedSlider.setValue(25);
+        speedSlider.setValue(Math.round(model.getSpeedFactor() * 25));
         speedSlider.setMajorTickSpacing(25);
         speedSlider.setMinorTickSpacing(5);
         speedSlider.setPaintTicks(true);
         buttonPanel.add(speedSlider);
+        buttonPanel.add(statsBox);
+        collideBox.setSelected(model.isCollisionsEnabled());
+        buttonPanel.add(collideBox);
         stopButton.setEnabled(false);
         this.add(BorderLayout.CENTER, view);
     }
     
     /**
-     * Attaches listeners to the components, and schedules a Timer.
+     * Attaches listeners to the components.
      */
     private void attachListenersToComponents() {
-        // The Run button tells the Model to start
+        // The Run button tells the Model to start, or the recording to play
         runButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent event) {
                 runButton.setEnabled(false);
                 stopButton.setEnabled(true);
-                model.start();
+                if (replayer != null) {
+                    replayTimer.start();
+                }
+                else {
+                    model.start();
+                }
             }
         });
-        // The Stop button tells the Model to pause
+        // The Stop button tells the Model to pause, or the recording to stop
         stopButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent event) {
                 runButton.setEnabled(true);
                 stopButton.setEnabled(false);
+                if (replayer != null) {
+                    replayTimer.stop();
+                }
+                else {
+                    model.pause();
+                }
+            }
+        });
+        // The More button adds one figure of each type
+        addButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent event) {
+                for (FigureType type : FigureType.ALL) {
+                    model.addFigures(type, 1);
+                }
+            }
+        });
+        // The Fewer button removes one figure of each type
+        removeButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent event) {
+                for (FigureType type : FigureType.ALL) {
+                    model.removeFigures(type, 1);
+                }
+            }
+        });
+        // When the window is closed, the Model is saved to the checkpoint
+        this.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent event) {
+                if (checkpoint == null || replayer != null) {
+                    return;
+                }
                 model.pause();
+                try {
+                    model.saveCheckpoint(checkpoint);
+                } catch (IOException e) {
+                    System.err.println("Checkpoint not saved: " + e);
+                }
             }
         });
-        // When the window is resized, the Model is given the new limits
+        // When the window is resized, the Model is given the new limits:
+        // during a drag, only once every RESIZE_DELAY ms, at the latest size
+        resizeTimer = new Timer(RESIZE_DELAY, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent event) {
+                model.setLimits(view.getWidth(), view.getHeight());
+            }
+        });
+        resizeTimer.setRepeats(false);
         this.addComponentListener(new ComponentAdapter() {
             @Override
             public void componentResized(ComponentEvent arg0) {
-                model.setLimits(view.getWidth(), view.getHeight());
+                if (!resizeTimer.isRunning()) {
+                    resizeTimer.start();
+                }
             }
         });
         // When the ball color combobox is changed, update the color
@@ -174,6 +352,18 @@ public class Controller extends JFrame {
         		view.repaint();
         	}
         });
+        // When the stats box is changed, show or hide the metrics overlay
+        statsBox.addActionListener(new ActionListener() {
+        	public void actionPerformed(ActionEvent e) {
+        		view.setOverlayEnabled(statsBox.isSelected());
+        	}
+        });
+        // When the collide box is changed, turn collisions between figures on or off
+        collideBox.addActionListener(new ActionListener() {
+        	public void actionPerformed(ActionEvent e) {
+        		model.setCollisionsEnabled(collideBox.isSelected());
+        	}
+        });
         // When the speed slider is changed, update the velocities of the objects
         speedSlider.addChangeListener(new ChangeListener() {
         	public void stateChanged(ChangeEvent e) {
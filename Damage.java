@@ -0,0 +1,238 @@
+package kaleidoscope;
+
+/**
+ * The parts of the display that changed between two snapshots, as a
+ * short list of rectangles that don't overlap. Every copy of every
+ * figure that moved adds its old and new bounds, as far as they are on
+ * the display. A rectangle that
+ * touches one already in the list is merged into it; otherwise it is
+ * added to the list, and once the list is full it is merged with the
+ * rectangle it grows the least. So a few figures spread over a large
+ * display damage a few small areas, rather than one rectangle spanning
+ * them all. When the figures moved all over, the damage is simply
+ * "full", meaning the whole display.
+ */
+final class Damage {
+    /** The most rectangles kept before they are merged. */
+    static final int MAX_REGIONS = 32;
+    private final int[] left = new int[MAX_REGIONS];
+    private final int[] top = new int[MAX_REGIONS];
+    private final int[] right = new int[MAX_REGIONS];
+    private final int[] bottom = new int[MAX_REGIONS];
+    private int count;
+    private boolean full;
+
+    /**
+     * Constructor, for damage that is initially full
+     */
+    Damage() {
+        setFull();
+    }
+
+    /**
+     * Empties the damage.
+     */
+    void clear() {
+        full = false;
+        count = 0;
+    }
+
+    /**
+     * Marks the whole display as damaged.
+     */
+    void setFull() {
+        full = true;
+    }
+
+    /**
+     * Tells whether the whole display is damaged
+     * @return true if the whole display must be repainted
+     */
+    boolean isFull() {
+        return full;
+    }
+
+    /**
+     * Adds the bounds of every copy of a figure to the damage, clipped
+     * to the display
+     * @param x The x position of the figure
+     * @param y The y position of the figure
+     * @param w The width of the figure
+     * @param h The height of the figure
+     * @param width The width of the display
+     * @param height The height of the display
+     */
+    void addFigure(int x, int y, int w, int h, int width, int height) {
+        for (int k = 0; k < Reflection.COPIES; k++) {
+            int copyX = Reflection.x(k, x, y, w, h, width, height);
+            int copyY = Reflection.y(k, x, y, w, h, width, height);
+            int copyW = Reflection.orientation(k).isSideways() ? h : w;
+            int copyH = Reflection.orientation(k).isSideways() ? w : h;
+            add(Math.max(copyX, 0), Math.max(copyY, 0),
+                    Math.min(copyX + copyW, width), Math.min(copyY + copyH, height));
+        }
+    }
+
+    /**
+     * Adds a rectangle to the damage
+     * @param x0 The left of the rectangle
+     * @param y0 The top of the rectangle
+     * @param x1 The right of the rectangle
+     * @param y1 The bottom of the rectangle
+     */
+    void add(int x0, int y0, int x1, int y1) {
+        if (full || x1 <= x0 || y1 <= y0) {
+            return;
+        }
+        int into = -1;
+        for (int i = 0; i < count && into < 0; i++) {
+            if (x0 <= right[i] && left[i] <= x1 && y0 <= bottom[i] && top[i] <= y1) {
+                into = i;
+            }
+        }
+        if (into < 0 && count < MAX_REGIONS) {
+            left[count] = x0;
+            top[count] = y0;
+            right[count] = x1;
+            bottom[count] = y1;
+            count++;
+            return;
+        }
+        if (into < 0) {
+            long leastGrowth = Long.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                long growth = (long) (Math.max(x1, right[i]) - Math.min(x0, left[i]))
+                        * (Math.max(y1, bottom[i]) - Math.min(y0, top[i]))
+                        - (long) (right[i] - left[i]) * (bottom[i] - top[i]);
+                if (growth < leastGrowth) {
+                    leastGrowth = growth;
+                    into = i;
+                }
+            }
+        }
+        left[into] = Math.min(left[into], x0);
+        top[into] = Math.min(top[into], y0);
+        right[into] = Math.max(right[into], x1);
+        bottom[into] = Math.max(bottom[into], y1);
+        mergeOverlaps(into);
+    }
+
+    /**
+     * Merges every rectangle that a grown rectangle now touches into it,
+     * so that the rectangles stay apart
+     * @param grown The index of the rectangle that grew
+     */
+    private void mergeOverlaps(int grown) {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = count - 1; i >= 0; i--) {
+                if (i != grown && left[i] <= right[grown] && left[grown] <= right[i]
+                        && top[i] <= bottom[grown] && top[grown] <= bottom[i]) {
+                    left[grown] = Math.min(left[grown], left[i]);
+                    top[grown] = Math.min(top[grown], top[i]);
+                    right[grown] = Math.max(right[grown], right[i]);
+                    bottom[grown] = Math.max(bottom[grown], bottom[i]);
+                    // Move the last rectangle into the merged one's place
+                    count--;
+                    left[i] = left[count];
+                    top[i] = top[count];
+                    right[i] = right[count];
+                    bottom[i] = bottom[count];
+                    if (grown == count) {
+                        grown = i;
+                    }
+                    merged = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds all of another damage to this one
+     * @param other The damage to add
+     */
+    void add(Damage other) {
+        if (other.full) {
+            full = true;
+            return;
+        }
+        for (int i = 0; i < other.count; i++) {
+            add(other.left[i], other.top[i], other.right[i], other.bottom[i]);
+        }
+    }
+
+    /**
+     * Makes this damage the same as another
+     * @param other The damage to copy
+     */
+    void copyFrom(Damage other) {
+        clear();
+        add(other);
+    }
+
+    /**
+     * Returns the area of the damage, clipped to the display
+     * @param width The width of the display
+     * @param height The height of the display
+     * @return The damaged area, in pixels
+     */
+    long area(int width, int height) {
+        if (full) {
+            return (long) width * height;
+        }
+        long area = 0;
+        for (int i = 0; i < count; i++) {
+            long w = Math.min(right[i], width) - Math.max(left[i], 0);
+            long h = Math.min(bottom[i], height) - Math.max(top[i], 0);
+            if (w > 0 && h > 0) {
+                area += w * h;
+            }
+        }
+        return area;
+    }
+
+    /**
+     * Returns the number of damage rectangles, unless the damage is full
+     * @return The number of rectangles, from 0 to MAX_REGIONS
+     */
+    int getRegionCount() {
+        return count;
+    }
+
+    /**
+     * Returns the x coordinate of the left of damage rectangle i
+     * @param i Which rectangle
+     * @return The left of the rectangle
+     */
+    int getX(int i) {
+        return left[i];
+    }
+
+    /**
+     * Returns the y coordinate of the top of damage rectangle i
+     * @param i Which rectangle
+     * @return The top of the rectangle
+     */
+    int getY(int i) {
+        return top[i];
+    }
+
+    /**
+     * Returns the width of damage rectangle i
+     * @param i Which rectangle
+     * @return The width of the rectangle
+     */
+    int getWidth(int i) {
+        return right[i] - left[i];
+    }
+
+    /**
+     * Returns the height of damage rectangle i
+     * @param i Which rectangle
+     * @return The height of the rectangle
+     */
+    int getHeight(int i) {
+        return bottom[i] - top[i];
+    }
+}
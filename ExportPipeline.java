@@ -0,0 +1,433 @@
+package kaleidoscope;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Exports frames of a Model to numbered files using three pipeline stages:
+ * <ol>
+ * <li>The calling thread steps the model and copies each tick into a pooled Snapshot,
+ * or reads the snapshots from a Replayer.</li>
+ * <li>A pool of rasterizer threads paints the snapshots into pooled images.</li>
+ * <li>A pool of encoder threads writes the images to files.</li>
+ * </ol>
+ * Encoding takes far longer than the other stages, so it has the most threads.
+ * <p>
+ * The stages are joined by bounded queues, and the snapshots and images
+ * come from fixed pools. A fast stage blocks once it gets too far
+ * ahead of a slow one. This keeps memory use fixed however many frames
+ * are exported. Frames finish out of order, but each one carries its
+ * frame number into its file name (frame-000000.png, frame-000001.png,
+ * and so on), so the output order always matches the simulation.
+ * Frame numbers come from the model's tick, so an export that
+ * starts after Model.seek numbers its frames from the tick it started at.
+ */
+class ExportPipeline {
+    /** The formats frames can be written in. */
+    enum Format {
+        /** Compressed PNG images. */
+        PNG("png"),
+        /**
+         * Raw 8-bit RGB triples, row by row, with no header. Tools such as
+         * ffmpeg read these as "-f rawvideo -pix_fmt rgb24".
+         */
+        RGB("rgb");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * Returns the file name extension for this format
+         * @return The extension, without a dot
+         */
+        String getExtension() {
+            return extension;
+        }
+    }
+
+    /** An image in the pool, and the number of the frame painted in it. */
+    private static final class Frame {
+        final BufferedImage image;
+        long number;
+
+        Frame(BufferedImage image) {
+            this.image = image;
+        }
+    }
+
+    /** Tells a rasterizer that there are no more snapshots. */
+    private static final Snapshot END_OF_SNAPSHOTS = new Snapshot();
+    /** Tells an encoder that there are no more frames. */
+    private static final Frame END_OF_FRAMES = new Frame(null);
+
+    /** The throughput of one stage, added to by all of its threads. */
+    static final class Stage {
+        final String name;
+        final int threads;
+        final AtomicLong frames = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+        final AtomicLong waitNanos = new AtomicLong();
+
+        Stage(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+        }
+
+        /**
+         * Prints one line describing this stage's throughput
+         * @param out Where to print it
+         * @param elapsedNanos How long the whole export took
+         */
+        void print(PrintStream out, long elapsedNanos) {
+            long n = frames.get();
+            long busy = busyNanos.get();
+            long wait = waitNanos.get();
+            out.printf("%-9s %2d thread%s %8d frames %9.1f frames/s %9.1f frames/s/thread busy %3.0f%% waiting%n",
+                    name, threads, threads == 1 ? " " : "s", n, n * 1e9 / elapsedNanos,
+                    busy == 0 ? 0 : n * 1e9 / busy, busy + wait == 0 ? 0 : 100.0 * wait / (busy + wait));
+        }
+    }
+
+    private final Model model;
+    private final int width;
+    private final int height;
+    private final Format format;
+    private final File directory;
+    private final Stage simulate;
+    private final Stage rasterize;
+    private final Stage encode;
+    private final BlockingQueue<Snapshot> freeSnapshots;
+    private final BlockingQueue<Snapshot> snapshotsToRasterize;
+    private final BlockingQueue<Frame> freeFrames;
+    private final BlockingQueue<Frame> framesToEncode;
+    /** The first thing to go wrong in any stage, which stops the export. */
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    /** Whether the rasterizers use a RasterRenderer rather than Java2D. */
+    private volatile boolean rasterEnabled;
+    /** Whether the rasterizers draw primaries only, and reflect them. */
+    private volatile boolean symmetryEnabled;
+    /** Whether the rasterizers draw Java2D figures from sprites. */
+    private volatile boolean spritesEnabled;
+    /** The pool the rasterizers fill raster tiles on, or null to fill on their own threads. */
+    private volatile ForkJoinPool tilePool;
+    /** Where the snapshots come from instead of the model, if not null. */
+    private Replayer replayer;
+    private Thread[] workers;
+    private Thread producer;
+    private long elapsedNanos;
+
+    /**
+     * Constructor. Sets the model's limits to the size of the frames.
+     * @param model The Model to step and export
+     * @param width The width of the frames, in pixels
+     * @param height The height of the frames, in pixels
+     * @param rasterizers The number of threads painting frames
+     * @param encoders The number of threads writing files
+     * @param format The format to write the frames in
+     * @param directory The directory to write the frames to
+     */
+    ExportPipeline(Model model, int width, int height, int rasterizers, int encoders,
+            Format format, File directory) {
+        if (rasterizers < 1 || encoders < 1) {
+            throw new IllegalArgumentException("Each stage needs at least one thread");
+        }
+        this.model = model;
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.directory = directory;
+        model.setLimits(width, height);
+        simulate = new Stage("simulate", 1);
+        rasterize = new Stage("rasterize", rasterizers);
+        encode = new Stage("encode", encoders);
+        // Two of everything per thread: one being worked on, one waiting
+        int snapshotCount = 2 * rasterizers;
+        int frameCount = 2 * (rasterizers + encoders);
+        freeSnapshots = new ArrayBlockingQueue<Snapshot>(snapshotCount);
+        snapshotsToRasterize = new ArrayBlockingQueue<Snapshot>(snapshotCount + rasterizers);
+        for (int i = 0; i < snapshotCount; i++) {
+            freeSnapshots.add(new Snapshot());
+        }
+        freeFrames = new ArrayBlockingQueue<Frame>(frameCount);
+        framesToEncode = new ArrayBlockingQueue<Frame>(frameCount + encoders);
+        for (int i = 0; i < frameCount; i++) {
+            freeFrames.add(new Frame(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)));
+        }
+    }
+
+    /**
+     * Chooses how the rasterizer threads paint frames. Takes effect at
+     * the next run.
+     * @param enabled true to fill the built-in shapes with a RasterRenderer
+     */
+    void setRasterEnabled(boolean enabled) {
+        rasterEnabled = enabled;
+    }
+
+    /**
+     * Turns symmetry mode on or off for the rasterizer threads, as
+     * SceneRenderer.setSymmetryEnabled does. Takes effect at the next run.
+     * @param enabled true to draw one copy of each figure and reflect it
+     */
+    void setSymmetryEnabled(boolean enabled) {
+        symmetryEnabled = enabled;
+    }
+
+    /**
+     * Turns drawing from pre-rendered sprites on or off for the
+     * rasterizer threads, each of which has a sprite cache of its own.
+     * Takes effect at the next run.
+     * @param enabled true to draw figures from sprites
+     */
+    void setSpritesEnabled(boolean enabled) {
+        spritesEnabled = enabled;
+    }
+
+    /**
+     * Makes the software rasterizer split each frame into tiles, filled
+     * in parallel on a pool that all the rasterizer threads share. Only
+     * used while the raster is enabled. Takes effect at the next run.
+     * @param pool The pool to fill tiles on, or null for each
+     * rasterizer to fill its frames on its own thread
+     */
+    void setTilePool(ForkJoinPool pool) {
+        tilePool = pool;
+    }
+
+    /**
+     * Makes the pipeline export the records of a recording, from the
+     * replayer's current position, instead of stepping the model. The
+     * model is then only used for its figure sizes. Takes effect at the
+     * next run.
+     * @param replayer The recording to export, or null to step the model
+     */
+    void setReplayer(Replayer replayer) {
+        this.replayer = replayer;
+    }
+
+    /**
+     * Steps the model and exports one frame after each step, returning
+     * once every frame has been written.
+     * @param frames The number of frames to export
+     * @return The number of frames exported, which is fewer than frames
+     * if a recording being replayed ran out
+     * @throws IOException If a frame can't be written
+     * @throws InterruptedException If the calling thread is interrupted
+     */
+    long run(long frames) throws IOException, InterruptedException {
+        producer = Thread.currentThread();
+        workers = new Thread[rasterize.threads + encode.threads];
+        for (int i = 0; i < rasterize.threads; i++) {
+            workers[i] = new Thread(new Rasterizer(), "kaleidoscope-rasterize-" + i);
+        }
+        for (int i = 0; i < encode.threads; i++) {
+            workers[rasterize.threads + i] = new Thread(new Encoder(), "kaleidoscope-encode-" + i);
+        }
+        for (Thread worker : workers) {
+            worker.setDaemon(true);
+            worker.start();
+        }
+        long start = System.nanoTime();
+        try {
+            for (long f = 0; f < frames; f++) {
+                long waitStart = System.nanoTime();
+                Snapshot snapshot = freeSnapshots.take();
+                long busyStart = System.nanoTime();
+                if (replayer == null) {
+                    model.makeOneStep();
+                    model.copyTo(snapshot);
+                }
+                else if (!replayer.readNext(snapshot)) {
+                    freeSnapshots.put(snapshot);
+                    break;
+                }
+                // Frame n is the state after tick n + 1, whatever tick the model started at
+                snapshot.tick -= 1;
+                long busyEnd = System.nanoTime();
+                snapshotsToRasterize.put(snapshot);
+                simulate.waitNanos.addAndGet(busyStart - waitStart + System.nanoTime() - busyEnd);
+                simulate.busyNanos.addAndGet(busyEnd - busyStart);
+                simulate.frames.incrementAndGet();
+            }
+            for (int i = 0; i < rasterize.threads; i++) {
+                snapshotsToRasterize.put(END_OF_SNAPSHOTS);
+            }
+            for (int i = 0; i < rasterize.threads; i++) {
+                workers[i].join();
+            }
+            for (int i = 0; i < encode.threads; i++) {
+                framesToEncode.put(END_OF_FRAMES);
+            }
+            for (int i = 0; i < encode.threads; i++) {
+                workers[rasterize.threads + i].join();
+            }
+        } catch (InterruptedException e) {
+            if (failure.get() == null) {
+                abort(e);
+                throw e;
+            }
+        } catch (IOException e) {
+            abort(e); // The recording couldn't be read
+        }
+        elapsedNanos = System.nanoTime() - start;
+        Throwable cause = failure.get();
+        if (cause != null) {
+            Thread.interrupted(); // abort may have interrupted this thread too
+        }
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause != null) {
+            throw new IOException("Frame export failed", cause);
+        }
+        return simulate.frames.get();
+    }
+
+    /**
+     * Stops every stage because one of them has failed
+     * @param cause What went wrong
+     */
+    private void abort(Throwable cause) {
+        if (failure.compareAndSet(null, cause)) {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            producer.interrupt();
+        }
+    }
+
+    /**
+     * Prints the throughput of each stage of the last run
+     * @param out Where to print it
+     */
+    void printReport(PrintStream out) {
+        simulate.print(out, elapsedNanos);
+        rasterize.print(out, elapsedNanos);
+        encode.print(out, elapsedNanos);
+    }
+
+    /**
+     * Returns the throughput of each stage of the last run
+     * @return The simulate, rasterize and encode stages, in that order
+     */
+    Stage[] getStages() {
+        return new Stage[] {simulate, rasterize, encode};
+    }
+
+    /** Paints snapshots into frames, with a SceneRenderer of its own. */
+    private final class Rasterizer implements Runnable {
+        @Override
+        public void run() {
+            SceneRenderer scene = new SceneRenderer(model);
+            scene.setSpritesEnabled(spritesEnabled);
+            scene.setTilePool(tilePool);
+            scene.setRasterEnabled(rasterEnabled);
+            scene.setSymmetryEnabled(symmetryEnabled);
+            try {
+                while (true) {
+                    long waitStart = System.nanoTime();
+                    Snapshot snapshot = snapshotsToRasterize.take();
+                    if (snapshot == END_OF_SNAPSHOTS) {
+                        return;
+                    }
+                    Frame frame = freeFrames.take();
+                    long busyStart = System.nanoTime();
+                    Graphics2D g = frame.image.createGraphics();
+                    try {
+                        scene.paint(g, snapshot, width, height);
+                    } finally {
+                        g.dispose();
+                    }
+                    frame.number = snapshot.tick;
+                    long busyEnd = System.nanoTime();
+                    freeSnapshots.put(snapshot);
+                    framesToEncode.put(frame);
+                    rasterize.waitNanos.addAndGet(busyStart - waitStart + System.nanoTime() - busyEnd);
+                    rasterize.busyNanos.addAndGet(busyEnd - busyStart);
+                    rasterize.frames.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                // Another stage failed, and has already said why
+            } catch (Throwable e) {
+                abort(e);
+            }
+        }
+    }
+
+    /** Writes frames to files. */
+    private final class Encoder implements Runnable {
+        /** The RGB bytes of one frame, reused for every raw frame. */
+        private byte[] rgb;
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    long waitStart = System.nanoTime();
+                    Frame frame = framesToEncode.take();
+                    if (frame == END_OF_FRAMES) {
+                        return;
+                    }
+                    long busyStart = System.nanoTime();
+                    File file = new File(directory, String.format("frame-%06d.%s", frame.number, format.getExtension()));
+                    if (format == Format.PNG) {
+                        ImageIO.write(frame.image, "png", file);
+                    }
+                    else {
+                        writeRgb(frame.image, file);
+                    }
+                    long busyEnd = System.nanoTime();
+                    freeFrames.put(frame);
+                    encode.waitNanos.addAndGet(busyStart - waitStart + System.nanoTime() - busyEnd);
+                    encode.busyNanos.addAndGet(busyEnd - busyStart);
+                    encode.frames.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                // Another stage failed, and has already said why
+            } catch (Throwable e) {
+                abort(e);
+            }
+        }
+
+        /**
+         * Writes an image as raw RGB bytes
+         * @param image The image, which must be TYPE_INT_RGB
+         * @param file The file to write
+         * @throws IOException If the file can't be written
+         */
+        private void writeRgb(BufferedImage image, File file) throws IOException {
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            if (rgb == null) {
+                rgb = new byte[pixels.length * 3];
+            }
+            for (int i = 0, j = 0; i < pixels.length; i++) {
+                int p = pixels[i];
+                rgb[j++] = (byte) (p >> 16);
+                rgb[j++] = (byte) (p >> 8);
+                rgb[j++] = (byte) p;
+            }
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(rgb);
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
@@ -2,11 +2,15 @@ package kaleidoscope;
 
 /**
  * Each Figure represents a moving object, with an x & y position,
- * an x & y speed, a width, a height and a type. It can be one of any type,
- * but the only ones currently recognized by the View are "ball",
- * "rectangle" and "triangle". We also store the initial speed of the
+ * an x & y speed, a width, a height and a type. It can be any FigureType
+ * that the View has a FigureRenderer for; currently these are balls,
+ * rectangles and triangles. We also store the initial speed of the
  * object for speed scaling, and the upper bounds of allowable x & y
  * positions for the object.
+ * <p>
+ * A Figure does not hold this state itself: it is a view over one
+ * index of a FigureStore, which keeps the state of all the figures in
+ * parallel primitive arrays.
  * 
  * @author David Matuszek
  * @author Josh Taylor
@@ -14,28 +18,28 @@ package kaleidoscope;
  */
 
 public class Figure {
-	private int xPosition;
-	private int yPosition;
-	private int xLimit;
-	private int yLimit;
-	private int xDelta;
-	private int yDelta;
-	private int xDelta0;
-	private int yDelta0;
-	private int width;
-	private int height;
-	private String type;
+	private final FigureStore store;
+	private final int index;
 	
 	/**
-     * Constructor
+     * Constructor for a figure that is not part of a model
      * @param width The width of the figure
      * @param height The height of the figure
      * @param type The type of the figure
      */
-	Figure(int width, int height, String type) {
-		this.width = width;
-		this.height = height;
-		this.type = type;
+	Figure(int width, int height, FigureType type) {
+		this.store = new FigureStore(1);
+		this.index = store.add(width, height, type);
+	}
+	
+	/**
+     * Constructor for a view over one figure in a store
+     * @param store The store holding the figure's state
+     * @param index The index of the figure in the store
+     */
+	Figure(FigureStore store, int index) {
+		this.store = store;
+		this.index = index;
 	}
 	
     /**
@@ -43,7 +47,7 @@ public class Figure {
      * @param xPos The x coordinate of the left side of the figure.
      */
 	public void setXPosition(int xPos) {
-		xPosition = xPos;
+		store.xPosition[index] = xPos;
 	}
 	
 	/**
@@ -51,7 +55,7 @@ public class Figure {
      * @return The x coordinate of the left side of the figure.
      */
 	public int getXPosition(){
-		return xPosition;
+		return store.xPosition[index];
 	}
 
     /**
@@ -59,7 +63,7 @@ public class Figure {
      * @param yPos The y coordinate of the top of the figure.
      */
 	public void setYPosition(int yPos) {
-		yPosition = yPos;
+		store.yPosition[index] = yPos;
 	}
 
 	/**
@@ -67,7 +71,7 @@ public class Figure {
      * @return The y coordinate of the top of the figure.
      */
 	public int getYPosition(){
-		return yPosition;
+		return store.yPosition[index];
 	}
 
     /**
@@ -75,7 +79,7 @@ public class Figure {
      * @param xDel The x velocity of the figure.
      */
 	public void setXDelta(int xDel) {
-		xDelta = xDel;
+		store.xDelta[index] = xDel;
 	}
 	
 	/**
@@ -83,7 +87,7 @@ public class Figure {
      * @return The x velocity of the figure.
      */
 	public int getXDelta(){
-		return xDelta;
+		return store.xDelta[index];
 	}
 
     /**
@@ -91,7 +95,7 @@ public class Figure {
      * @param xDel The initial x velocity of the figure.
      */
 	public void setInitXDelta(int xDel0) {
-		xDelta0 = xDel0;
+		store.xDelta0[index] = xDel0;
 	}
 
     /**
@@ -99,7 +103,7 @@ public class Figure {
      * @return The initial x velocity of the figure.
      */
 	public int getInitXDelta() {
-		return xDelta0;
+		return store.xDelta0[index];
 	}
 
     /**
@@ -107,7 +111,7 @@ public class Figure {
      * @param yDel The y velocity of the figure.
      */
 	public void setYDelta(int yDel) {
-		yDelta = yDel;
+		store.yDelta[index] = yDel;
 	}
 
 	/**
@@ -115,7 +119,7 @@ public class Figure {
      * @return The y velocity of the figure.
      */
 	public int getYDelta(){
-		return yDelta;
+		return store.yDelta[index];
 	}
 
     /**
@@ -123,7 +127,7 @@ public class Figure {
      * @param yDel The initial y velocity of the figure.
      */
 	public void setInitYDelta(int yDel0) {
-		yDelta0 = yDel0;
+		store.yDelta0[index] = yDel0;
 	}
 
     /**
@@ -131,7 +135,7 @@ public class Figure {
      * @return The initial y velocity of the figure.
      */
 	public int getInitYDelta() {
-		return yDelta0;
+		return store.yDelta0[index];
 	}
 
     /**
@@ -139,7 +143,7 @@ public class Figure {
      * @param xLim The x limit of the figure.
      */
 	public void setXLimit(int xLim) {
-		xLimit = xLim;
+		store.xLimit[index] = xLim;
 	}
 	
 	/**
@@ -147,7 +151,7 @@ public class Figure {
      * @return The x limit of the figure.
      */
 	public int getXLimit(){
-		return xLimit;
+		return store.xLimit[index];
 	}
 
     /**
@@ -155,7 +159,7 @@ public class Figure {
      * @param yLim The y limit of the figure.
      */
 	public void setYLimit(int yLim) {
-		yLimit = yLim;
+		store.yLimit[index] = yLim;
 	}
 
 	/**
@@ -163,7 +167,7 @@ public class Figure {
      * @return The y limit of the figure.
      */
 	public int getYLimit() {
-		return yLimit;
+		return store.yLimit[index];
 	}
 	
     /**
@@ -171,16 +175,7 @@ public class Figure {
      * If it hits a wall, its direction of movement changes.
      */
 	public void makeOneStep() {
-		setXPosition(getXPosition() + getXDelta());
-    	if (getXPosition() < 0 || getXPosition() >= getXLimit()) {
-    		setXDelta(-1 * getXDelta());
-    		setXPosition(getXPosition() + getXDelta());
-    	}
-    	setYPosition(getYPosition() + getYDelta());
-    	if (getYPosition() < 0 || getYPosition() >= getYLimit()) {
-    		setYDelta(-1 * getYDelta());
-    		setYPosition(getYPosition() + getYDelta());
-    	}
+		store.step(index, index + 1);
 	}
 	
 	/**
@@ -189,21 +184,14 @@ public class Figure {
      * @param yLimit The maximum allowed y value for the display
      */
 	public void setLimits(int xLimit, int yLimit) {
-        setXLimit(xLimit - width);
-        setYLimit(yLimit - height);
-        for (int x = 0; x < getXPosition(); x++) {
-        	setXPosition(Math.min(getXPosition(), getXLimit()));
-        }
-        for (int y = 0; y < getYPosition(); y++) {
-        	setYPosition(Math.min(getYPosition(), getYLimit()));
-        }
+		store.setLimits(xLimit, yLimit, index, index + 1);
 	}
 	
 	/**
-     * Returns the figure's type as a String
+     * Returns the figure's type
      * @return The figure's type
      */
-	public String getType() {
-		return type;
+	public FigureType getType() {
+		return FigureType.of(store.type[index]);
 	}
-}
+}
\ No newline at end of file
@@ -0,0 +1,25 @@
+package kaleidoscope;
+
+import java.awt.Color;
+import java.awt.Graphics;
+
+/**
+ * Paints one kind of figure. The View works out where each of the 8
+ * reflected copies of a figure goes, and which way it faces, and calls
+ * a FigureRenderer once per copy. To draw a new kind of figure, register
+ * a renderer for its FigureType with View.registerRenderer.
+ */
+public interface FigureRenderer {
+
+    /**
+     * Paints one copy of a figure. The Graphics is already set to the
+     * figure's color.
+     * @param g The Graphics on which to paint the figure.
+     * @param x The x coordinate of the left of the copy
+     * @param y The y coordinate of the top of the copy
+     * @param orientation The way the copy faces; LEFT and RIGHT copies
+     * have their width and height swapped
+     * @param color The color of the figure
+     */
+    void paint(Graphics g, int x, int y, Orientation orientation, Color color);
+}
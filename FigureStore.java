@@ -0,0 +1,312 @@
+package kaleidoscope;
+
+import java.util.Arrays;
+
+/**
+ * Stores the state of every figure in the kaleidoscope as parallel
+ * primitive arrays (a "structure of arrays"), rather than as one heap
+ * object per figure. The i-th element of each array belongs to figure i,
+ * so the stepping, velocity and limit loops walk memory sequentially.
+ * <p>
+ * The arrays are package-private so that the Model and its step loops
+ * can work on them directly; everything else should go through a
+ * Figure, which is a lightweight view over one index of the store.
+ * <p>
+ * The figures in use are always indices 0 to size - 1, with no gaps,
+ * so the loops never skip over dead figures. Adding a figure takes the
+ * first free index, and the arrays double in length when they are
+ * full. Removing one moves the last figure into its place. The arrays
+ * never shrink, so once a store has held as many figures as it ever
+ * will, adding and removing figures allocates nothing.
+ */
+final class FigureStore {
+    int[] xPosition;
+    int[] yPosition;
+    int[] xDelta;
+    int[] yDelta;
+    int[] xDelta0;
+    int[] yDelta0;
+    int[] xLimit;
+    int[] yLimit;
+    int[] width;
+    int[] height;
+    /** The FigureType code of each figure. */
+    byte[] type;
+    /** The number of figures in use; indices at or above this are free. */
+    int size;
+
+    /**
+     * Constructor
+     * @param capacity The number of figures the store can hold
+     */
+    FigureStore(int capacity) {
+        xPosition = new int[capacity];
+        yPosition = new int[capacity];
+        xDelta = new int[capacity];
+        yDelta = new int[capacity];
+        xDelta0 = new int[capacity];
+        yDelta0 = new int[capacity];
+        xLimit = new int[capacity];
+        yLimit = new int[capacity];
+        width = new int[capacity];
+        height = new int[capacity];
+        type = new byte[capacity];
+    }
+
+    /**
+     * Makes sure the store can hold at least capacity figures,
+     * doubling the arrays if it can't
+     * @param capacity The number of figures needed
+     */
+    void ensureCapacity(int capacity) {
+        if (capacity <= xPosition.length) {
+            return;
+        }
+        int length = Math.max(capacity, 2 * xPosition.length);
+        xPosition = Arrays.copyOf(xPosition, length);
+        yPosition = Arrays.copyOf(yPosition, length);
+        xDelta = Arrays.copyOf(xDelta, length);
+        yDelta = Arrays.copyOf(yDelta, length);
+        xDelta0 = Arrays.copyOf(xDelta0, length);
+        yDelta0 = Arrays.copyOf(yDelta0, length);
+        xLimit = Arrays.copyOf(xLimit, length);
+        yLimit = Arrays.copyOf(yLimit, length);
+        width = Arrays.copyOf(width, length);
+        height = Arrays.copyOf(height, length);
+        type = Arrays.copyOf(type, length);
+    }
+
+    /**
+     * Adds a figure with the given size and type, with all other
+     * values zero, making room for it if the store is full.
+     * @param w The width of the figure
+     * @param h The height of the figure
+     * @param figureType The type of the figure
+     * @return The index of the new figure
+     */
+    int add(int w, int h, FigureType figureType) {
+        ensureCapacity(size + 1);
+        int i = size++;
+        xPosition[i] = 0;
+        yPosition[i] = 0;
+        xDelta[i] = 0;
+        yDelta[i] = 0;
+        xDelta0[i] = 0;
+        yDelta0[i] = 0;
+        xLimit[i] = 0;
+        yLimit[i] = 0;
+        width[i] = w;
+        height[i] = h;
+        type[i] = figureType.code();
+        return i;
+    }
+
+    /**
+     * Removes a figure, moving the last figure into its index
+     * @param i The index of the figure to remove
+     */
+    void remove(int i) {
+        int last = --size;
+        xPosition[i] = xPosition[last];
+        yPosition[i] = yPosition[last];
+        xDelta[i] = xDelta[last];
+        yDelta[i] = yDelta[last];
+        xDelta0[i] = xDelta0[last];
+        yDelta0[i] = yDelta0[last];
+        xLimit[i] = xLimit[last];
+        yLimit[i] = yLimit[last];
+        width[i] = width[last];
+        height[i] = height[last];
+        type[i] = type[last];
+    }
+
+    /**
+     * Advances figures from (inclusive) to to (exclusive) one step in
+     * the direction that they are moving. A figure that hits a wall
+     * reverses its direction and steps back, exactly as
+     * Figure.makeOneStep always has.
+     * @param from The index of the first figure to step
+     * @param to One past the index of the last figure to step
+     */
+    void step(int from, int to) {
+        int[] x = xPosition;
+        int[] dx = xDelta;
+        int[] xLim = xLimit;
+        for (int i = from; i < to; i++) {
+            int pos = x[i] + dx[i];
+            if (pos < 0 || pos >= xLim[i]) {
+                dx[i] = -dx[i];
+                pos += dx[i];
+            }
+            x[i] = pos;
+        }
+        int[] y = yPosition;
+        int[] dy = yDelta;
+        int[] yLim = yLimit;
+        for (int i = from; i < to; i++) {
+            int pos = y[i] + dy[i];
+            if (pos < 0 || pos >= yLim[i]) {
+                dy[i] = -dy[i];
+                pos += dy[i];
+            }
+            y[i] = pos;
+        }
+    }
+
+    /**
+     * Copies the positions and velocities of figures 0 (inclusive) to
+     * count (exclusive) from another store
+     * @param other The store to copy from
+     * @param count The number of figures to copy
+     */
+    void copyMotionFrom(FigureStore other, int count) {
+        System.arraycopy(other.xPosition, 0, xPosition, 0, count);
+        System.arraycopy(other.yPosition, 0, yPosition, 0, count);
+        System.arraycopy(other.xDelta, 0, xDelta, 0, count);
+        System.arraycopy(other.yDelta, 0, yDelta, 0, count);
+    }
+
+    /**
+     * Puts figures from (inclusive) to to (exclusive) where step would
+     * have put them after a number of steps from their positions and
+     * velocities in another store, but without taking the steps. The
+     * limits must not have changed in between.
+     * @param origin The store holding the positions and velocities to start from
+     * @param steps The number of steps to skip
+     * @param from The index of the first figure
+     * @param to One past the index of the last figure
+     */
+    void seek(FigureStore origin, long steps, int from, int to) {
+        seekAxis(origin.xPosition, origin.xDelta, xLimit, xPosition, xDelta, steps, from, to);
+        seekAxis(origin.yPosition, origin.yDelta, yLimit, yPosition, yDelta, steps, from, to);
+    }
+
+    /**
+     * Works out where figures are on one axis after a number of steps.
+     * <p>
+     * A figure moving at speed s inside its limits only ever visits the
+     * positions a, a + s, ... b that are a whole number of steps from
+     * where it started. It moves up them one step at a time, spends a
+     * step turning round at b (a bounce leaves it where it was), moves
+     * back down and spends a step turning round at a. With n positions,
+     * that is a cycle of 2n steps, and a figure's place in the cycle
+     * gives its position and direction.
+     * <p>
+     * A figure outside its limits, for example after the display shrank
+     * below its size, either gets inside within two steps or stays
+     * where it is, reversing its direction every step.
+     * @param startPositions The positions to start from
+     * @param startDeltas The velocities to start from
+     * @param limits The limits of the positions
+     * @param positions Loaded with the positions after the steps
+     * @param deltas Loaded with the velocities after the steps
+     * @param steps The number of steps
+     * @param from The index of the first figure
+     * @param to One past the index of the last figure
+     */
+    private static void seekAxis(int[] startPositions, int[] startDeltas, int[] limits, int[] positions,
+            int[] deltas, long steps, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int pos = startPositions[i];
+            int delta = startDeltas[i];
+            int limit = limits[i];
+            long t = steps;
+            for (int k = 0; k < 2 && t > 0 && (pos < 0 || pos >= limit); k++, t--) {
+                if (pos + delta < 0 || pos + delta >= limit) {
+                    delta = -delta;
+                }
+                else {
+                    pos += delta;
+                }
+            }
+            if (delta == 0 || t == 0) {
+                // Nothing left to do
+            }
+            else if (pos < 0 || pos >= limit) {
+                if ((t & 1) == 1) {
+                    delta = -delta;
+                }
+            }
+            else {
+                int speed = Math.abs(delta);
+                int first = pos % speed;
+                int count = (limit - 1 - first) / speed + 1;
+                int index = pos / speed;
+                long cycle = 2L * count;
+                long phase = delta > 0 ? index : cycle - 1 - index;
+                phase = (phase + t % cycle) % cycle;
+                if (phase < count) {
+                    pos = first + (int) phase * speed;
+                    delta = speed;
+                }
+                else {
+                    pos = first + (int) (cycle - 1 - phase) * speed;
+                    delta = -speed;
+                }
+            }
+            positions[i] = pos;
+            deltas[i] = delta;
+        }
+    }
+
+    /**
+     * Sets the x and y limits of figures from (inclusive) to to (exclusive)
+     * based on their sizes, and pulls them back inside the new limits.
+     * A figure at or left of 0 is left where it is, as it always has been.
+     * @param xMax The maximum allowed x value for the display
+     * @param yMax The maximum allowed y value for the display
+     * @param from The index of the first figure
+     * @param to One past the index of the last figure
+     */
+    void setLimits(int xMax, int yMax, int from, int to) {
+        for (int i = from; i < to; i++) {
+            xLimit[i] = xMax - width[i];
+            yLimit[i] = yMax - height[i];
+            if (xPosition[i] > 0) {
+                xPosition[i] = Math.min(xPosition[i], xLimit[i]);
+            }
+            if (yPosition[i] > 0) {
+                yPosition[i] = Math.min(yPosition[i], yLimit[i]);
+            }
+        }
+    }
+
+    /**
+     * Sets the limits of figures from (inclusive) to to (exclusive) and
+     * pulls them back inside, as setLimits does, for figures whose size
+     * depends only on their type. Looking the limits up by type code
+     * reads one byte per figure instead of its width and height.
+     * @param xLimits The x limit of each type of figure, by type code
+     * @param yLimits The y limit of each type of figure, by type code
+     * @param from The index of the first figure
+     * @param to One past the index of the last figure
+     */
+    void setLimitsByType(int[] xLimits, int[] yLimits, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int xLim = xLimits[type[i]];
+            int yLim = yLimits[type[i]];
+            xLimit[i] = xLim;
+            yLimit[i] = yLim;
+            if (xPosition[i] > 0) {
+                xPosition[i] = Math.min(xPosition[i], xLim);
+            }
+            if (yPosition[i] > 0) {
+                yPosition[i] = Math.min(yPosition[i], yLim);
+            }
+        }
+    }
+
+    /**
+     * Scales the velocities of all figures to speedFactor times their
+     * initial velocities, keeping their current directions.
+     * @param speedFactor The multiple of the initial speed to move at
+     */
+    void changeVelocity(float speedFactor) {
+        for (int i = 0; i < size; i++) {
+            xDelta[i] = (int) (Math.signum(xDelta[i]) * Math.ceil(speedFactor * xDelta0[i]));
+        }
+        for (int i = 0; i < size; i++) {
+            yDelta[i] = (int) (Math.signum(yDelta[i]) * Math.ceil(speedFactor * yDelta0[i]));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package kaleidoscope;
+
+/**
+ * The kinds of figure that can bounce around in the Model. The View
+ * draws each kind with the FigureRenderer registered for it.
+ */
+public enum FigureType {
+    BALL("ball"), RECT("rect"), TRI("tri");
+
+    /** All the types, in ordinal order, without cloning values(). */
+    static final FigureType[] ALL = values();
+    private final String name;
+
+    /**
+     * Constructor
+     * @param name The short name of the type
+     */
+    FigureType(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the short name of the type ("ball", "rect" or "tri")
+     * @return The name of the type
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the code that stands for this type in a FigureStore
+     * @return The type code
+     */
+    byte code() {
+        return (byte) ordinal();
+    }
+
+    /**
+     * Returns the type that a FigureStore type code stands for
+     * @param code The type code
+     * @return The corresponding type
+     */
+    static FigureType of(byte code) {
+        return ALL[code];
+    }
+}
@@ -0,0 +1,97 @@
+package kaleidoscope;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Steps the figures in parallel by splitting the figure range into
+ * chunks of at most grainSize figures and running the chunks on a
+ * ForkJoinPool. Each chunk is stepped by another engine, the fastest
+ * there is on one thread unless told otherwise, so when the Vector API
+ * is there every core steps its chunks with vectors. Every figure is
+ * stepped independently of the others, so the result is identical to
+ * the serial loop. Below threshold figures the pool is not used at
+ * all, and the chunk engine steps them all, since for small scenes the
+ * cost of forking outweighs the work.
+ */
+class ForkJoinStepEngine implements StepEngine {
+    /** Default number of figures stepped by one task. */
+    static final int DEFAULT_GRAIN_SIZE = 16 * 1024;
+    /** Default figure count below which stepping stays serial. */
+    static final int DEFAULT_THRESHOLD = 64 * 1024;
+    private final ForkJoinPool pool;
+    private final int grainSize;
+    private final int threshold;
+    /** Steps each chunk, on whichever thread the task runs. */
+    private final StepEngine chunkEngine;
+
+    /**
+     * Constructor, using the common pool, the default sizes and the
+     * fastest engine for the chunks
+     */
+    ForkJoinStepEngine() {
+        this(ForkJoinPool.commonPool(), DEFAULT_GRAIN_SIZE, DEFAULT_THRESHOLD, StepEngines.fastest());
+    }
+
+    /**
+     * Constructor
+     * @param pool The pool to run the step tasks on
+     * @param grainSize The largest number of figures stepped by one task
+     * @param threshold The figure count below which stepping is serial
+     * @param chunkEngine The engine that steps each chunk, which must
+     * not keep any state between steps, since it is used by every
+     * thread in the pool at once
+     */
+    ForkJoinStepEngine(ForkJoinPool pool, int grainSize, int threshold, StepEngine chunkEngine) {
+        if (grainSize < 1) {
+            throw new IllegalArgumentException("grainSize must be positive: " + grainSize);
+        }
+        this.pool = pool;
+        this.grainSize = grainSize;
+        this.threshold = threshold;
+        this.chunkEngine = chunkEngine;
+    }
+
+    @Override
+    public void step(FigureStore store, int count) {
+        if (count < threshold || count <= grainSize) {
+            chunkEngine.step(store, count);
+        }
+        else {
+            step(store, 0, count);
+        }
+    }
+
+    @Override
+    public void step(FigureStore store, int from, int to) {
+        pool.invoke(new StepTask(store, from, to));
+    }
+
+    /**
+     * Steps one range of figures, splitting it in half until the
+     * pieces are no bigger than the grain size.
+     */
+    @SuppressWarnings("serial")
+    private class StepTask extends RecursiveAction {
+        private final FigureStore store;
+        private final int from;
+        private final int to;
+
+        StepTask(FigureStore store, int from, int to) {
+            this.store = store;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grainSize) {
+                chunkEngine.step(store, from, to);
+            }
+            else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new StepTask(store, from, mid), new StepTask(store, mid, to));
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package kaleidoscope;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Renders kaleidoscope frames without a window. The HeadlessRenderer
+ * steps the Model itself and paints each snapshot into one reusable
+ * BufferedImage with a SceneRenderer, so the frames are the same as
+ * the View would show, but nothing goes through the AWT event queue.
+ * <p>
+ * Usage: <code>java kaleidoscope.Controller --headless [--figures n]
+ * [--size WIDTHxHEIGHT] [--seed n] [--start tick] [--frames n] [--collisions]
+ * [--engine serial|fj|vector [--grain n]] [--record file | --replay file]
+ * [--sprites | --raster [--tiles n] | --symmetry]
+ * [--out dir [--format png|rgb] [--rasterizers n] [--encoders n]]</code>
+ * <p>
+ * --raster paints with the software rasterizer, and --tiles splits
+ * its frames into tiles filled by n threads; when exporting, the
+ * rasterizer threads share the n tile threads. --symmetry draws one copy
+ * of each figure and reflects it to make the others. --collisions
+ * bounces the figures off each other as well as off the walls.
+ * <p>
+ * --engine chooses how the figures are stepped: with the scalar loop,
+ * in chunks of --grain figures on the common ForkJoinPool, or with the
+ * Vector API, which needs <code>--add-modules jdk.incubator.vector</code>.
+ * Without it, the Model picks the fastest engine for one thread.
+ * <p>
+ * --start skips straight to a tick with Model.seek, without stepping
+ * the figures there. Frame n is always the state after tick n + 1, so
+ * disjoint ranges of frames can be exported by separate processes and
+ * the files put together afterwards. Colliding figures can only be
+ * stepped to a tick, so --start needs collisions off, unless replaying.
+ * <p>
+ * --record records every tick to a file, and --replay renders the
+ * ticks recorded in one instead of running the simulation. When
+ * replaying, --start goes to a recorded tick, and is rejected if the
+ * recording starts after it; --figures and --seed are ignored.
+ * <p>
+ * Without --out the frames are rendered and thrown away, which is
+ * useful for measuring throughput. With it, the frames are handed to
+ * an ExportPipeline, which writes each one to dir as frame-000000.png,
+ * frame-000001.png, and so on, and reports each stage's throughput.
+ */
+public class HeadlessRenderer {
+    private final Model model;
+    private final SceneRenderer scene;
+    private final BufferedImage frame;
+    private final Graphics2D graphics;
+
+    /**
+     * Constructor. Sets the model's limits to the size of the frames.
+     * @param model The Model to step and render
+     * @param width The width of the frames, in pixels
+     * @param height The height of the frames, in pixels
+     */
+    HeadlessRenderer(Model model, int width, int height) {
+        this.model = model;
+        model.setLimits(width, height);
+        scene = new SceneRenderer(model);
+        frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        graphics = frame.createGraphics();
+    }
+
+    /**
+     * Returns the renderer used to paint the frames, so that its colors
+     * and figure renderers can be changed
+     * @return The scene renderer
+     */
+    SceneRenderer getScene() {
+        return scene;
+    }
+
+    /**
+     * Steps the model once and renders the result.
+     * @return The frame, which is reused (and overwritten) by the next call
+     */
+    BufferedImage renderNextFrame() {
+        model.makeOneStep();
+        return render();
+    }
+
+    /**
+     * Renders the model's latest snapshot without stepping it.
+     * @return The frame, which is reused (and overwritten) by the next call
+     */
+    BufferedImage render() {
+        return render(model.acquireSnapshot());
+    }
+
+    /**
+     * Renders a snapshot, which needn't be the model's, for example
+     * one from a Replayer.
+     * @param snapshot The figures to render
+     * @return The frame, which is reused (and overwritten) by the next call
+     */
+    BufferedImage render(Snapshot snapshot) {
+        long start = System.nanoTime();
+        scene.paint(graphics, snapshot, frame.getWidth(), frame.getHeight());
+        model.getMetrics().recordPaint(start, System.nanoTime() - start);
+        model.getMetrics().recordCopies(scene.getDrawnCopies(), scene.getCulledCopies());
+        return frame;
+    }
+
+    /**
+     * Runs the headless renderer from the command line.
+     * @param args See the class comment.
+     * @throws IOException If a frame can't be written
+     * @throws InterruptedException If the export is interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+        int figures = 15;
+        int width = 600;
+        int height = 600;
+        long seed = System.nanoTime();
+        long frames = 1000;
+        boolean sprites = false;
+        boolean raster = false;
+        int tileThreads = 0;
+        boolean symmetry = false;
+        boolean collisions = false;
+        long startTick = 0;
+        String engine = null;
+        int grainSize = ForkJoinStepEngine.DEFAULT_GRAIN_SIZE;
+        File record = null;
+        File replay = null;
+        File out = null;
+        ExportPipeline.Format format = ExportPipeline.Format.PNG;
+        int cores = Runtime.getRuntime().availableProcessors();
+        int rasterizers = Math.max(1, cores / 4);
+        int encoders = Math.max(1, cores - rasterizers);
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--figures")) {
+                figures = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("--size")) {
+                String[] size = args[++i].toLowerCase().split("x");
+                width = Integer.parseInt(size[0]);
+                height = Integer.parseInt(size[1]);
+            }
+            else if (args[i].equals("--seed")) {
+                seed = Long.parseLong(args[++i]);
+            }
+            else if (args[i].equals("--record")) {
+                record = new File(args[++i]);
+            }
+            else if (args[i].equals("--replay")) {
+                replay = new File(args[++i]);
+            }
+            else if (args[i].equals("--start")) {
+                startTick = Long.parseLong(args[++i]);
+            }
+            else if (args[i].equals("--frames")) {
+                frames = Long.parseLong(args[++i]);
+            }
+            else if (args[i].equals("--engine")) {
+                engine = args[++i];
+            }
+            else if (args[i].equals("--grain")) {
+                grainSize = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("--collisions")) {
+                collisions = true;
+            }
+            else if (args[i].equals("--sprites")) {
+                sprites = true;
+            }
+            else if (args[i].equals("--raster")) {
+                raster = true;
+            }
+            else if (args[i].equals("--symmetry")) {
+                symmetry = true;
+            }
+            else if (args[i].equals("--tiles")) {
+                tileThreads = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("--out")) {
+                out = new File(args[++i]);
+            }
+            else if (args[i].equals("--format")) {
+                format = ExportPipeline.Format.valueOf(args[++i].toUpperCase());
+            }
+            else if (args[i].equals("--rasterizers")) {
+                rasterizers = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("--encoders")) {
+                encoders = Integer.parseInt(args[++i]);
+            }
+            else if (!args[i].equals("--headless")) {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        // Checked before anything is created
+        if (startTick > 0 && collisions && replay == null) {
+            throw new IllegalArgumentException("--start can't be used with --collisions: "
+                    + "figures that collide can't be sought to a tick, only stepped there");
+        }
+        StepEngine stepEngine = engine == null ? null : StepEngines.named(engine, grainSize);
+        Replayer replayer = replay == null ? null : new Replayer(replay);
+        if (replayer != null) {
+            figures = replayer.getFigureCount();
+            // Frame n is the state after tick n + 1, as when stepping
+            if (!replayer.seek(startTick + 1)) {
+                replayer.close();
+                throw new IllegalArgumentException("--start " + startTick + " is before the recording in "
+                        + replay + (replayer.getRecordCount() == 0 ? ", which is empty"
+                        : ", which has ticks " + replayer.getFirstTick() + " to " + replayer.getLastTick()));
+            }
+        }
+        if (out != null && !out.isDirectory() && !out.mkdirs()) {
+            throw new IOException("Can't create output directory " + out);
+        }
+        Model model = new Model(figures, seed);
+        if (stepEngine != null) {
+            model.setStepEngine(stepEngine);
+        }
+        model.setCollisionsEnabled(collisions);
+        long start = System.nanoTime();
+        long rendered = 0;
+        if (out != null) {
+            ExportPipeline pipeline = new ExportPipeline(model, width, height, rasterizers, encoders, format, out);
+            pipeline.setSpritesEnabled(sprites);
+            pipeline.setRasterEnabled(raster);
+            pipeline.setSymmetryEnabled(symmetry);
+            if (tileThreads > 0) {
+                pipeline.setTilePool(new ForkJoinPool(tileThreads));
+            }
+            pipeline.setReplayer(replayer);
+            if (startTick > 0 && replayer == null) {
+                model.seek(startTick);
+            }
+            if (record != null) {
+                model.startRecording(record);
+            }
+            rendered = pipeline.run(frames);
+            pipeline.printReport(System.out);
+        }
+        else {
+            HeadlessRenderer renderer = new HeadlessRenderer(model, width, height);
+            renderer.getScene().setSpritesEnabled(sprites);
+            if (tileThreads > 0) {
+                renderer.getScene().setTilePool(new ForkJoinPool(tileThreads));
+            }
+            renderer.getScene().setRasterEnabled(raster);
+            renderer.getScene().setSymmetryEnabled(symmetry);
+            if (startTick > 0 && replayer == null) {
+                model.seek(startTick);
+            }
+            if (record != null) {
+                model.startRecording(record);
+            }
+            for (; rendered < frames; rendered++) {
+                if (replayer == null) {
+                    renderer.renderNextFrame();
+                }
+                else if (replayer.advance()) {
+                    renderer.render(replayer.acquireSnapshot());
+                }
+                else {
+                    break;
+                }
+            }
+        }
+        model.stopRecording();
+        if (replayer != null) {
+            replayer.close();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d frames of %d figures at %dx%d in %.2f s (%.1f frames/s), seed %d%n",
+                rendered, figures, width, height, seconds, rendered / seconds, seed);
+    }
+}
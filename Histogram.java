@@ -0,0 +1,127 @@
+package kaleidoscope;
+
+/**
+ * Counts how often values (such as durations in nanoseconds) fall into
+ * each of a fixed set of buckets. The buckets are log-linear, in the
+ * style of an HDR histogram: every power of two is split into 16 equal
+ * buckets, so any value is recorded with an error of at most 1/16
+ * (about 6%), from 1 ns to hundreds of years, in a fixed 8 KB of counts.
+ * Recording never allocates.
+ * <p>
+ * Values should be recorded by one thread. Other threads may read the
+ * statistics while it does; they are then only approximate.
+ */
+final class Histogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private final long[] counts = new long[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+    private volatile long count;
+    private volatile long sum;
+    private volatile long max;
+
+    /**
+     * Records one value
+     * @param value The value to record; negative values count as 0
+     */
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Forgets every value recorded so far.
+     */
+    void reset() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    /**
+     * Returns the number of values recorded
+     * @return The count of values
+     */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the mean of the values recorded
+     * @return The mean, or 0 if nothing has been recorded
+     */
+    double getMean() {
+        long n = count;
+        return n == 0 ? 0 : (double) sum / n;
+    }
+
+    /**
+     * Returns the largest value recorded
+     * @return The maximum, or 0 if nothing has been recorded
+     */
+    long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns (an upper bound of) the value below which the given
+     * percentage of the recorded values fall
+     * @param percentile The percentage, from 0 to 100
+     * @return The value at that percentile, or 0 if nothing has been recorded
+     */
+    long getValueAtPercentile(double percentile) {
+        long n = count;
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(lowestValue(i + 1) - 1, max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the bucket a value falls into
+     * @param value A value, at least 0
+     * @return The index of its bucket
+     */
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the smallest value that falls into a bucket
+     * @param index The index of the bucket
+     * @return The lowest value of the bucket
+     */
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        if (exponent > 62) {
+            return Long.MAX_VALUE;
+        }
+        long sub = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+}
@@ -0,0 +1,247 @@
+package kaleidoscope;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Keeps track of how the simulation and the painting are performing:
+ * how long steps and paints take, how often they happen, and how many
+ * ticks were dropped or never shown. Steps are recorded by the
+ * simulation thread and paints by the painting thread; recording
+ * never allocates or locks. The figures can be read from any thread,
+ * including over JMX once registerMBean has been called.
+ */
+public class Metrics implements MetricsMBean {
+    /** The name the metrics are registered under with JMX. */
+    public static final String OBJECT_NAME = "kaleidoscope:type=Metrics";
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private final Histogram stepTimes = new Histogram();
+    private final Histogram tickIntervals = new Histogram();
+    private final Histogram paintTimes = new Histogram();
+    private volatile long ticks;
+    private volatile long frames;
+    private volatile long droppedTicks;
+    private volatile long coalescedFrames;
+    private volatile long drawnCopies;
+    private volatile long culledCopies;
+    private volatile long candidatePairs;
+    private volatile long collisions;
+    private volatile int figureCount;
+    private volatile double ticksPerSecond;
+    private volatile double framesPerSecond;
+    private long lastStepStart;
+    private long tickWindowStart;
+    private long tickWindowCount;
+    private long frameWindowStart;
+    private long frameWindowCount;
+
+    /**
+     * Records one step of the simulation. Called by the simulation thread.
+     * @param startNanos When the step started, from System.nanoTime
+     * @param durationNanos How long the step took
+     * @param figures The number of figures stepped
+     */
+    void recordStep(long startNanos, long durationNanos, int figures) {
+        if (ticks > 0) {
+            tickIntervals.record(startNanos - lastStepStart);
+        }
+        else {
+            tickWindowStart = startNanos;
+        }
+        lastStepStart = startNanos;
+        stepTimes.record(durationNanos);
+        figureCount = figures;
+        ticks++;
+        tickWindowCount++;
+        long window = startNanos - tickWindowStart;
+        if (window >= NANOS_PER_SECOND) {
+            ticksPerSecond = (double) tickWindowCount * NANOS_PER_SECOND / window;
+            tickWindowStart = startNanos;
+            tickWindowCount = 0;
+        }
+    }
+
+    /**
+     * Records the painting of one frame. Called by the painting thread.
+     * @param startNanos When the paint started, from System.nanoTime
+     * @param durationNanos How long the paint took
+     */
+    void recordPaint(long startNanos, long durationNanos) {
+        if (frames == 0) {
+            frameWindowStart = startNanos;
+        }
+        paintTimes.record(durationNanos);
+        frames++;
+        frameWindowCount++;
+        long window = startNanos - frameWindowStart;
+        if (window >= NANOS_PER_SECOND) {
+            framesPerSecond = (double) frameWindowCount * NANOS_PER_SECOND / window;
+            frameWindowStart = startNanos;
+            frameWindowCount = 0;
+        }
+    }
+
+    /**
+     * Records how many reflected copies of figures one frame painted,
+     * and how many it skipped because they were off-screen. Called by
+     * the painting thread.
+     * @param drawn The copies painted
+     * @param culled The copies skipped
+     */
+    void recordCopies(int drawn, int culled) {
+        drawnCopies += drawn;
+        culledCopies += culled;
+    }
+
+    /**
+     * Records how many pairs of figures one step tested for collisions,
+     * because their bounding boxes overlapped, and how many of them
+     * really touched. Called by the simulation thread.
+     * @param candidates The pairs tested
+     * @param contacts The pairs that touched
+     */
+    void recordCollisions(int candidates, int contacts) {
+        candidatePairs += candidates;
+        collisions += contacts;
+    }
+
+    /**
+     * Records steps skipped by the simulation clock. Called by the
+     * simulation thread.
+     * @param count The number of steps skipped
+     */
+    void recordDroppedTicks(long count) {
+        droppedTicks += count;
+    }
+
+    /**
+     * Records that a snapshot was replaced before the View painted it.
+     * Called by the simulation thread.
+     */
+    void recordCoalescedFrame() {
+        coalescedFrames++;
+    }
+
+    /**
+     * Makes the metrics visible to JMX tools, under OBJECT_NAME, in the
+     * platform MBean server.
+     * @throws JMException If they could not be registered
+     */
+    public void registerMBean() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    @Override
+    public long getTickCount() {
+        return ticks;
+    }
+
+    @Override
+    public long getFrameCount() {
+        return frames;
+    }
+
+    @Override
+    public double getTicksPerSecond() {
+        return ticksPerSecond;
+    }
+
+    @Override
+    public double getFramesPerSecond() {
+        return framesPerSecond;
+    }
+
+    @Override
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+
+    @Override
+    public long getCoalescedFrames() {
+        return coalescedFrames;
+    }
+
+    @Override
+    public long getDrawnCopies() {
+        return drawnCopies;
+    }
+
+    @Override
+    public long getCulledCopies() {
+        return culledCopies;
+    }
+
+    @Override
+    public long getCandidatePairs() {
+        return candidatePairs;
+    }
+
+    @Override
+    public long getCollisions() {
+        return collisions;
+    }
+
+    @Override
+    public int getFigureCount() {
+        return figureCount;
+    }
+
+    @Override
+    public double getStepTimeMean() {
+        return stepTimes.getMean() / 1000;
+    }
+
+    @Override
+    public long getStepTime50() {
+        return stepTimes.getValueAtPercentile(50) / 1000;
+    }
+
+    @Override
+    public long getStepTime99() {
+        return stepTimes.getValueAtPercentile(99) / 1000;
+    }
+
+    @Override
+    public long getStepTimeMax() {
+        return stepTimes.getMax() / 1000;
+    }
+
+    @Override
+    public double getTickIntervalMean() {
+        return tickIntervals.getMean() / 1000;
+    }
+
+    @Override
+    public long getTickInterval99() {
+        return tickIntervals.getValueAtPercentile(99) / 1000;
+    }
+
+    @Override
+    public double getPaintTimeMean() {
+        return paintTimes.getMean() / 1000;
+    }
+
+    @Override
+    public long getPaintTime50() {
+        return paintTimes.getValueAtPercentile(50) / 1000;
+    }
+
+    @Override
+    public long getPaintTime99() {
+        return paintTimes.getValueAtPercentile(99) / 1000;
+    }
+
+    @Override
+    public long getPaintTimeMax() {
+        return paintTimes.getMax() / 1000;
+    }
+
+    @Override
+    public void resetHistograms() {
+        stepTimes.reset();
+        tickIntervals.reset();
+        paintTimes.reset();
+    }
+}
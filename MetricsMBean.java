@@ -0,0 +1,74 @@
+package kaleidoscope;
+
+/**
+ * The management interface of the kaleidoscope's Metrics, as seen by
+ * JMX tools such as JConsole or VisualVM. Durations are in microseconds.
+ */
+public interface MetricsMBean {
+
+    /** @return The number of steps the Model has taken */
+    long getTickCount();
+
+    /** @return The number of frames the View has painted */
+    long getFrameCount();
+
+    /** @return Steps per second, over the last second or so */
+    double getTicksPerSecond();
+
+    /** @return Frames painted per second, over the last second or so */
+    double getFramesPerSecond();
+
+    /** @return Steps skipped because the simulation fell too far behind */
+    long getDroppedTicks();
+
+    /** @return Snapshots published that the View never painted */
+    long getCoalescedFrames();
+
+    /** @return Reflected copies of figures painted, over all frames */
+    long getDrawnCopies();
+
+    /** @return Reflected copies skipped because they were off-screen */
+    long getCulledCopies();
+
+    /** @return Pairs of figures whose bounding boxes overlapped, over all steps */
+    long getCandidatePairs();
+
+    /** @return Pairs of figures that touched and were bounced apart */
+    long getCollisions();
+
+    /** @return The number of figures in the Model */
+    int getFigureCount();
+
+    /** @return The mean time taken by one step */
+    double getStepTimeMean();
+
+    /** @return The median time taken by one step */
+    long getStepTime50();
+
+    /** @return The 99th percentile of the time taken by one step */
+    long getStepTime99();
+
+    /** @return The longest time taken by one step */
+    long getStepTimeMax();
+
+    /** @return The mean time between the starts of consecutive steps */
+    double getTickIntervalMean();
+
+    /** @return The 99th percentile of the time between consecutive steps */
+    long getTickInterval99();
+
+    /** @return The mean time taken to paint one frame */
+    double getPaintTimeMean();
+
+    /** @return The median time taken to paint one frame */
+    long getPaintTime50();
+
+    /** @return The 99th percentile of the time taken to paint one frame */
+    long getPaintTime99();
+
+    /** @return The longest time taken to paint one frame */
+    long getPaintTimeMax();
+
+    /** Forgets all the times recorded so far. */
+    void resetHistograms();
+}
@@ -1,51 +1,192 @@
 package kaleidoscope;
 
-import java.util.Observable;
-import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
- * This is the Model class for a kaleidoscope. It is an Observable,
- * which means that it can notifyObservers that something in the
- * model has changed, and they should take appropriate actions. It
- * contains an array of objects that have varying positions, speeds
- * and types.
+ * This is the Model class for a kaleidoscope. It tells the
+ * ModelListeners added to it when something in the model has changed,
+ * so that they can take appropriate actions. It contains a store of
+ * figures that have varying positions, speeds and types.
  * 
  * @author David Matuszek
  * @author Josh Taylor
  * @author Ted Fujimoto
  */
-public class Model extends Observable {
+public class Model {
     public final int BALL_SIZE = 100;
     public final int RECT_WIDTH = 200;
     public final int RECT_HEIGHT = 100;
     public final int TRI_WIDTH = 150;
     public final int TRI_HEIGHT = 150;
-    public int numObjects = 15;
-    private Timer timer;
-    private Figure[] figures;
-    private Random rand;
+    /** The number of figures, which only changes between ticks. */
+    private volatile int numObjects;
+    private SimulationClock clock;
+    private Metrics metrics = new Metrics();
+    private FigureStore figures;
+    private volatile StepEngine stepEngine = StepEngines.fastest();
+    private SnapshotBuffer snapshots = new SnapshotBuffer();
+    /** Who is told of ticks and other changes. */
+    private final ModelListeners listeners = new ModelListeners();
+    /** Tells them, on a thread of its own. */
+    private final ModelNotifier notifier = new ModelNotifier(listeners);
+    /** Finds figures that touch each other, when collisions are on. */
+    private final SpatialGrid grid = new SpatialGrid();
+    private volatile boolean collisionsEnabled;
+    /** The positions and velocities of the figures at anchorTick, which seek starts from. */
+    private FigureStore anchor;
+    private long anchorTick;
+    /** Set when the limits, speeds, figures or collisions change, and the anchor must be taken again. */
+    private volatile boolean anchorStale = true;
+    /** The limits, speed and collisions waiting to be applied at the next tick. */
+    private final ControlQueue controls = new ControlQueue();
+    /** The kinds of control input applied since the listeners were last told, as ControlQueue bits. */
+    private int appliedControls;
+    /** The figures of each type waiting to be added and removed, by type code. */
+    private final AtomicIntegerArray pendingAdds = new AtomicIntegerArray(FigureType.ALL.length);
+    private final AtomicIntegerArray pendingRemoves = new AtomicIntegerArray(FigureType.ALL.length);
+    /** Set when figures are waiting to be added or removed. */
+    private volatile boolean figuresPending;
+    /** Set when figures were added or removed since the last snapshot, so its damage is full. */
+    private boolean figuresReplaced;
+    /** The ranges of indices whose figures changed, to tell the listeners of once published. */
+    private int removedFrom = -1;
+    private int removedTo;
+    private int addedFrom = -1;
+    private int addedTo;
+    /** Records every snapshot published, if not null. */
+    private Recorder recorder;
+    /** What stopped the last recording early, for stopRecording to throw. */
+    private IOException recordingFailure;
+    /** The size of the display, as last given to setLimits. */
+    private int displayWidth;
+    private int displayHeight;
+    /** The limits of each type of figure in the display, by type code. */
+    private final int[] xLimitOfType = new int[FigureType.ALL.length];
+    private final int[] yLimitOfType = new int[FigureType.ALL.length];
+    /**
+     * Damage tracking stops, and the damage is full, beyond this fraction
+     * of the display. The View repaints in full beyond the same fraction.
+     */
+    private volatile double damageAreaLimit = 0.5;
+    private volatile long tick;
+    /** The multiple of their initial speeds that the figures move at. */
+    private float speedFactor = 1;
+    private SeededRandom rand;
     
     /**
      * Constructor
      */
     Model () {
-    	rand = new Random();
-    	figures = new Figure[numObjects];
+    	this(15);
+    }
+
+    /**
+     * Constructor
+     * @param numObjects The number of figures to bounce around
+     */
+    Model (int numObjects) {
+    	this(numObjects, new SeededRandom());
+    }
+
+    /**
+     * Constructor for a model that always starts the same way
+     * @param numObjects The number of figures to bounce around
+     * @param seed The seed for the figures' random positions and velocities
+     */
+    Model (int numObjects, long seed) {
+    	this(numObjects, new SeededRandom(seed));
+    }
+
+    /**
+     * Constructor
+     * @param numObjects The number of figures to bounce around
+     * @param rand Where the figures' positions and velocities come from
+     */
+    private Model (int numObjects, SeededRandom rand) {
+    	this.numObjects = numObjects;
+    	this.rand = rand;
+    	clock = createClock();
+    	figures = new FigureStore(numObjects);
     	for (int i = 0; i < numObjects; i++) {
     		if (i % 3 == 2) {
-    			figures[i] = new Figure(BALL_SIZE, BALL_SIZE, "ball");
+    			figures.add(BALL_SIZE, BALL_SIZE, FigureType.BALL);
     		}
     		else if (i % 3 == 1) {
-    			figures[i] = new Figure(RECT_WIDTH, RECT_HEIGHT, "rect");
+    			figures.add(RECT_WIDTH, RECT_HEIGHT, FigureType.RECT);
     		}
     		else {
-    			figures[i] = new Figure(TRI_WIDTH, TRI_HEIGHT, "tri");
+    			figures.add(TRI_WIDTH, TRI_HEIGHT, FigureType.TRI);
     		}
     	}
     	setInitialPositions();
     	setInitialVelocities();
+    	anchor = new FigureStore(numObjects);
+    	publishSnapshot();
+    }
+
+    /**
+     * Constructor for a model carrying on from a checkpoint
+     * @param checkpoint The saved state
+     */
+    private Model (Checkpoint checkpoint) {
+    	numObjects = checkpoint.figures.size;
+    	figures = checkpoint.figures;
+    	rand = new SeededRandom();
+    	rand.setState(checkpoint.randomState);
+    	clock = createClock();
+    	tick = checkpoint.tick;
+    	speedFactor = checkpoint.speedFactor;
+    	displayWidth = checkpoint.width;
+    	displayHeight = checkpoint.height;
+    	collisionsEnabled = checkpoint.collisionsEnabled;
+    	anchor = new FigureStore(numObjects);
+    	publishSnapshot();
+    }
+
+    /**
+     * Creates the clock that steps the model
+     * @return The clock, paused
+     */
+    private SimulationClock createClock() {
+    	return new SimulationClock(new Runnable() {
+    		@Override
+    		public void run() {
+    			makeOneStep();
+    		}
+    	}, 40, metrics); // 25 times a second
+    }
+
+    /**
+     * Creates a model in exactly the state saved by saveCheckpoint. It
+     * is paused, at the saved tick, and steps on just as the saved model
+     * would have.
+     * @param file The checkpoint to restore
+     * @return The restored model
+     * @throws IOException If the file can't be read, or isn't a whole checkpoint
+     */
+    public static Model restoreCheckpoint(File file) throws IOException {
+    	return new Model(Checkpoint.read(file));
+    }
+
+    /**
+     * Saves the whole state of the model to a file, for restoreCheckpoint
+     * to carry on from. Any thread may call this, even while the model
+     * is running: the state saved is always between two steps.
+     * @param file The file to save to, which is replaced if it exists
+     * @throws IOException If the file can't be written
+     */
+    public synchronized void saveCheckpoint(File file) throws IOException {
+    	Checkpoint checkpoint = new Checkpoint();
+    	checkpoint.figures = figures;
+    	checkpoint.tick = tick;
+    	checkpoint.randomState = rand.getState();
+    	checkpoint.speedFactor = speedFactor;
+    	checkpoint.width = displayWidth;
+    	checkpoint.height = displayHeight;
+    	checkpoint.collisionsEnabled = collisionsEnabled;
+    	checkpoint.write(file);
     }
     
     /**
@@ -53,8 +194,8 @@ public class Model extends Observable {
      */
     private void setInitialPositions() {
     	for (int i = 0; i < numObjects; i++) {
-    		figures[i].setXPosition(rand.nextInt(600));
-    		figures[i].setYPosition(rand.nextInt(600));
+    		figures.xPosition[i] = rand.nextInt(600);
+    		figures.yPosition[i] = rand.nextInt(600);
     	}
     }
     
@@ -63,88 +204,622 @@ public class Model extends Observable {
      */
     private void setInitialVelocities() {
     	for (int i = 0; i < numObjects; i++) {
-    		figures[i].setInitXDelta(rand.nextInt(5) + 1);
-    		figures[i].setXDelta(figures[i].getInitXDelta());
-    		figures[i].setInitYDelta(rand.nextInt(5) + 1);
-    		figures[i].setYDelta(figures[i].getInitYDelta());
+    		figures.xDelta0[i] = rand.nextInt(5) + 1;
+    		figures.xDelta[i] = figures.xDelta0[i];
+    		figures.yDelta0[i] = rand.nextInt(5) + 1;
+    		figures.yDelta[i] = figures.yDelta0[i];
     	}
     }
     
     /**
-     * Sets the "walls" that the ball should bounce off from.
+     * Sets the "walls" that the ball should bounce off from. Like the
+     * other controls, the new walls are put up between ticks: while the
+     * model is running, at the start of the next step, and only the
+     * latest walls set before then; while it is paused, at once.
      * 
      * @param xLimit The position (in pixels) of the wall on the right.
      * @param yLimit The position (in pixels) of the floor.
      */
     public void setLimits(int xLimit, int yLimit) {
-        for (int i = 0; i < numObjects; i++) {
-        	figures[i].setLimits(xLimit, yLimit);
+        controls.postLimits(xLimit, yLimit);
+        applyChangesIfPaused();
+    }
+
+    /**
+     * Returns the number of figures bouncing around
+     * @return The number of figures as of the latest tick
+     */
+    public int getFigureCount() {
+        return numObjects;
+    }
+
+    /**
+     * Adds figures of the given type, at random places inside the walls
+     * and moving at random speeds. Figures are only ever added and
+     * removed between ticks, so a snapshot never holds half a change:
+     * while the model is running the figures are added at the start of
+     * the next step, and while it is paused they are added at once.
+     * A recording can't follow a change in the number of figures, so
+     * one in progress is stopped, and the listeners are told why.
+     * @param type The type of figure to add
+     * @param count How many to add
+     */
+    public void addFigures(FigureType type, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must not be negative: " + count);
+        }
+        pendingAdds.addAndGet(type.ordinal(), count);
+        figuresPending = true;
+        applyChangesIfPaused();
+    }
+
+    /**
+     * Removes figures of the given type, the most recently added first,
+     * between ticks in the same way as addFigures. The last figures are
+     * moved into the removed figures' places, so the Figure returned by
+     * getFigure for an index may not be the same figure afterwards.
+     * @param type The type of figure to remove
+     * @param count How many to remove, at most; if there are fewer of
+     * the type, all of them are removed
+     */
+    public void removeFigures(FigureType type, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must not be negative: " + count);
         }
+        pendingRemoves.addAndGet(type.ordinal(), count);
+        figuresPending = true;
+        applyChangesIfPaused();
+    }
+
+    /**
+     * Applies the control inputs and figure changes waiting to be, and
+     * publishes the result, unless the model is running and its next
+     * step will
+     */
+    private void applyChangesIfPaused() {
+        if (clock.isRunning()) {
+            return; // Without waiting for the lock, which the step in progress holds
+        }
+        synchronized (this) {
+            if (clock.isRunning() || !(controls.isPending() || figuresPending)) {
+                return;
+            }
+            applyChanges();
+            publishSnapshot();
+            fireChanges();
+        }
+    }
+
+    /**
+     * Applies the latest control inputs, then adds and removes the
+     * figures waiting to be. The model must be locked, and between
+     * steps.
+     */
+    private void applyChanges() {
+        int kinds = controls.take();
+        if ((kinds & ControlQueue.LIMITS) != 0) {
+            displayWidth = controls.getWidth();
+            displayHeight = controls.getHeight();
+            // Every figure of a type is the same size, so has the same limits
+            for (FigureType type : FigureType.ALL) {
+                xLimitOfType[type.code()] = displayWidth - getWidth(type);
+                yLimitOfType[type.code()] = displayHeight - getHeight(type);
+            }
+            figures.setLimitsByType(xLimitOfType, yLimitOfType, 0, numObjects);
+            anchorStale = true;
+        }
+        if ((kinds & ControlQueue.SPEED) != 0) {
+            speedFactor = controls.getSpeedFactor();
+            figures.changeVelocity(speedFactor);
+            anchorStale = true;
+        }
+        if ((kinds & ControlQueue.COLLISIONS) != 0) {
+            collisionsEnabled = controls.isCollisionsEnabled();
+            anchorStale = true;
+        }
+        appliedControls |= kinds;
+        if (figuresPending) {
+            applyFigureChanges();
+        }
+    }
+
+    /**
+     * Adds and removes the figures waiting to be. The model must be
+     * locked, and between steps.
+     */
+    private void applyFigureChanges() {
+        figuresPending = false;
+        int oldCount = figures.size;
+        int lowest = oldCount;
+        for (FigureType type : FigureType.ALL) {
+            int n = pendingRemoves.getAndSet(type.ordinal(), 0);
+            byte code = type.code();
+            // Going down from the end, so every figure moved into a removed one's place has been looked at
+            for (int i = figures.size - 1; i >= 0 && n > 0; i--) {
+                if (figures.type[i] == code) {
+                    figures.remove(i);
+                    lowest = i;
+                    n--;
+                }
+            }
+        }
+        int added = figures.size;
+        for (FigureType type : FigureType.ALL) {
+            for (int n = pendingAdds.getAndSet(type.ordinal(), 0); n > 0; n--) {
+                addFigure(type);
+            }
+        }
+        if (figures.size == oldCount && lowest == oldCount) {
+            return;
+        }
+        if (lowest < oldCount) {
+            removedFrom = lowest;
+            removedTo = oldCount;
+        }
+        if (figures.size > added) {
+            addedFrom = added;
+            addedTo = figures.size;
+        }
+        numObjects = figures.size;
+        figuresReplaced = true;
+        anchorStale = true;
+        if (recorder != null) {
+            // A recording holds a fixed number of figures, so it ends with the last state it could
+            closeRecorder();
+            notifier.recordingStopped(new IllegalStateException("Recording stopped: the number of figures changed"));
+        }
+    }
+
+    /**
+     * Adds one figure at a random place inside the walls, moving at a
+     * random speed times the current speed factor
+     * @param type The type of figure
+     */
+    private void addFigure(FigureType type) {
+        int i = figures.add(getWidth(type), getHeight(type), type);
+        figures.xPosition[i] = rand.nextInt(displayWidth > 0 ? Math.max(1, displayWidth - figures.width[i]) : 600);
+        figures.yPosition[i] = rand.nextInt(displayHeight > 0 ? Math.max(1, displayHeight - figures.height[i]) : 600);
+        figures.xDelta0[i] = rand.nextInt(5) + 1;
+        figures.xDelta[i] = (int) Math.ceil(speedFactor * figures.xDelta0[i]);
+        figures.yDelta0[i] = rand.nextInt(5) + 1;
+        figures.yDelta[i] = (int) Math.ceil(speedFactor * figures.yDelta0[i]);
+        if (displayWidth > 0) {
+            figures.setLimits(displayWidth, displayHeight, i, i + 1);
+        }
+    }
+
+    /**
+     * Tells the listeners of the controls applied and the figures added
+     * and removed by the last applyChanges, once the result has been
+     * published
+     */
+    private void fireChanges() {
+        if (appliedControls != 0) {
+            int kinds = appliedControls;
+            appliedControls = 0;
+            if ((kinds & ControlQueue.LIMITS) != 0) {
+                notifier.limitsChanged(displayWidth, displayHeight);
+            }
+            if ((kinds & ControlQueue.SPEED) != 0) {
+                notifier.velocityChanged(speedFactor);
+            }
+        }
+        if (removedFrom >= 0) {
+            notifier.figuresRemoved(removedFrom, removedTo);
+            removedFrom = -1;
+        }
+        if (addedFrom >= 0) {
+            notifier.figuresAdded(addedFrom, addedTo);
+            addedFrom = -1;
+        }
+    }
+
+    /**
+     * Adds a listener to be told of ticks and other changes. A listener
+     * can be added or removed at any time, from any thread. Listeners
+     * are called on a thread of the model's own, so they don't hold up
+     * the simulation, and one that falls behind is only told of the
+     * latest tick.
+     * @param listener The listener to add
+     */
+    void addModelListener(ModelListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stops telling a listener of changes
+     * @param listener The listener to remove
+     */
+    void removeModelListener(ModelListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the width of every figure of the given type
+     * @param type The type of figure
+     * @return The width of the figure, in pixels
+     */
+    public int getWidth(FigureType type) {
+    	switch (type) {
+    	case BALL: return BALL_SIZE;
+    	case RECT: return RECT_WIDTH;
+    	default: return TRI_WIDTH;
+    	}
+    }
+
+    /**
+     * Returns the height of every figure of the given type
+     * @param type The type of figure
+     * @return The height of the figure, in pixels
+     */
+    public int getHeight(FigureType type) {
+    	switch (type) {
+    	case BALL: return BALL_SIZE;
+    	case RECT: return RECT_HEIGHT;
+    	default: return TRI_HEIGHT;
+    	}
+    }
+
+    /**
+     * Chooses how the figures are stepped, for example serially or
+     * in parallel on a ForkJoinPool. All engines give the same results.
+     * The default is the fastest that runs on one thread, as chosen by
+     * StepEngines.
+     * @param engine The engine to use for each step
+     */
+    void setStepEngine(StepEngine engine) {
+        stepEngine = engine;
+    }
+
+    /**
+     * Turns collisions between figures on or off, between ticks like
+     * setLimits. With them off, the figures pass through each other and
+     * only bounce off the walls.
+     * @param enabled true to bounce figures off each other
+     */
+    public void setCollisionsEnabled(boolean enabled) {
+        controls.postCollisions(enabled);
+        applyChangesIfPaused();
+    }
+
+    /**
+     * Tells whether figures bounce off each other
+     * @return true if collisions are on
+     */
+    public boolean isCollisionsEnabled() {
+        return collisionsEnabled;
     }
 
     /**
      * Accepts an element index number and returns the
-     * figure corresponding to that index in the figures array
+     * figure corresponding to that index in the figure store. Removing
+     * figures moves others to new indices, so the view is only good
+     * until then.
      * @param element The index number of the desired figure
-     * @return The requested figure object
+     * @return A view of the requested figure
      */
     public Figure getFigure(int element) {
-    	return figures[element];
+    	return new Figure(figures, element);
     }
     
     /**
-     * Tells the ball to start moving. This is done by starting a Timer
-     * that periodically executes a TimerTask. The TimerTask then tells
-     * the ball to make one "step."
+     * Tells the ball to start moving. This is done by resuming a
+     * SimulationClock, which tells the ball to make one "step" at
+     * a fixed rate on its own thread.
      */
     public void start() {
-        timer = new Timer(true);
-        timer.schedule(new Strobe(), 0, 40); // 25 times a second        
+        clock.resume();
     }
     
     /**
-     * Tells the ball to stop where it is.
+     * Tells the ball to stop where it is. The clock's thread is kept,
+     * and reused by the next call to start. Any controls set while the
+     * model was running that its last step didn't get to are applied.
      */
     public void pause() {
-        timer.cancel();
+        clock.pause();
+        applyChangesIfPaused();
+    }
+
+    /**
+     * Returns how many control inputs were replaced by a later input of
+     * the same kind before they were applied, and so cost nothing
+     * @return The number of inputs coalesced away
+     */
+    public long getCoalescedControls() {
+        return controls.getCoalesced();
+    }
+
+    /**
+     * Sets how many steps may be run back to back when the simulation
+     * falls behind real time.
+     * @param steps The maximum number of catch-up steps per frame
+     */
+    public void setMaxCatchUpSteps(int steps) {
+        clock.setMaxCatchUpSteps(steps);
+    }
+
+    /**
+     * Returns how much of a step has elapsed since the last one, so
+     * that rendering can interpolate between states.
+     * @return A fraction from 0 (inclusive) to 1 (exclusive)
+     */
+    public double getInterpolationAlpha() {
+        return clock.getInterpolationAlpha();
     }
     
     /**
      * Tells the figures to advance one step in the direction that they are moving.
-     * If they hit a wall, their direction of movement changes.
+     * If they hit a wall, or each other when collisions are on, their
+     * direction of movement changes.
      */
     public void makeOneStep() {
-        // Do the work
-		for (int i = 0; i < numObjects; i++) {
-			figures[i].makeOneStep();
-		}
-        // Notify observers
-        setChanged();
-        notifyObservers();
+        long start = System.nanoTime();
+        Snapshot snapshot;
+        // Holding the lock makes a checkpoint saved meanwhile wait for a whole step
+        synchronized (this) {
+            if (controls.isPending() || figuresPending) {
+                applyChanges();
+            }
+            if (anchorStale) {
+                takeAnchor();
+            }
+            // Do the work
+            stepEngine.step(figures, numObjects);
+            if (collisionsEnabled) {
+                grid.collide(figures, numObjects);
+                metrics.recordCollisions(grid.getCandidatePairs(), grid.getContacts());
+            }
+            tick++;
+            snapshot = publishSnapshot();
+            fireChanges();
+        }
+        long elapsed = System.nanoTime() - start;
+        metrics.recordStep(start, elapsed, numObjects);
+        // Tell the listeners what changed on the display
+        notifier.tickCompleted(snapshot.tick, elapsed, snapshot.damage);
     }
     
     /**
-     * Tells the model to advance one "step."
+     * Puts the figures where they will be at the given tick, without
+     * stepping them there, so that any tick can be shown or exported at
+     * once. The result is exactly what stepping would give. Only the
+     * thread that steps the model may call this, or any thread while
+     * it is paused.
+     * <p>
+     * Seeking works out each figure's motion from where it was at the
+     * last change of limits, speed or figures, so it can go back and forth over
+     * every tick since then, but not to a tick before it. Positions and
+     * velocities set through a Figure are not seen until the next such
+     * change. Figures that collide don't move independently, so seeking
+     * is not possible while collisions are on.
+     * @param tick The tick to go to
+     * @throws IllegalStateException If collisions are on
+     * @throws IllegalArgumentException If tick is before the last change
      */
-    private class Strobe extends TimerTask {
-        @Override
-        public void run() {
-            makeOneStep();
+    public void seek(long tick) {
+        long start = System.nanoTime();
+        if (collisionsEnabled) {
+            throw new IllegalStateException("Can't seek while figures collide with each other");
         }
+        if (anchorStale) {
+            takeAnchor();
+        }
+        if (tick < anchorTick) {
+            throw new IllegalArgumentException("Can't seek to tick " + tick
+                    + ", before the limits, speeds or figures changed at tick " + anchorTick);
+        }
+        figures.seek(anchor, tick - anchorTick, 0, numObjects);
+        this.tick = tick;
+        Snapshot snapshot = publishSnapshot();
+        notifier.tickCompleted(tick, System.nanoTime() - start, snapshot.damage);
     }
-    
+
+    /**
+     * Remembers the figures' positions and velocities at the current
+     * tick, for seek to start from
+     */
+    private void takeAnchor() {
+        anchorStale = false;
+        anchor.ensureCapacity(numObjects);
+        anchor.copyMotionFrom(figures, numObjects);
+        anchorTick = tick;
+    }
+
+    /**
+     * Copies the figures' positions into a snapshot and publishes it
+     * for the View to draw, along with the damage since the last
+     * snapshot the View took.
+     * @return The published snapshot
+     */
+    private synchronized Snapshot publishSnapshot() {
+        Snapshot snapshot = snapshots.getBackSnapshot();
+        Snapshot previous = snapshots.getPublishedSnapshot();
+        computeDamage(previous, snapshot.damage);
+        if (snapshots.isPending()) {
+            // The View never saw the previous snapshot, so carry its damage over
+            snapshot.damage.add(previous.damage);
+            metrics.recordCoalescedFrame();
+        }
+        snapshot.copyFrom(figures, numObjects, tick);
+        snapshots.publish();
+        if (recorder != null) {
+            try {
+                recorder.record(figures, tick, displayWidth, displayHeight);
+            } catch (IOException e) {
+                abandonRecording(e);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Starts recording the figures to a file, for a Replayer to play
+     * back. The current state is recorded at once, and then every state
+     * the model publishes, whether it got there by stepping, by seek or
+     * by being resized.
+     * @param file The file to record into, which is replaced if it exists
+     * @throws IOException If the file can't be created
+     */
+    public synchronized void startRecording(File file) throws IOException {
+        recordingFailure = null; // The listeners were told of it
+        stopRecording();
+        recorder = new Recorder(file, figures, numObjects);
+        recorder.record(figures, tick, displayWidth, displayHeight);
+    }
+
     /**
-     * Sets new velocities
+     * Stops recording, if the model is recording, and closes the file
+     * @throws IOException If the file couldn't be closed, or if writing
+     * it failed earlier and stopped the recording then
+     */
+    public synchronized void stopRecording() throws IOException {
+        if (recorder != null) {
+            closeRecorder();
+        }
+        IOException failure = recordingFailure;
+        recordingFailure = null;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Stops recording because the recording couldn't be written, and
+     * tells the listeners. The failure is kept, for the next call of
+     * stopRecording to throw.
+     * @param cause What went wrong
+     */
+    private void abandonRecording(IOException cause) {
+        recordingFailure = cause;
+        closeRecorder();
+        notifier.recordingStopped(cause);
+    }
+
+    /**
+     * Closes the file being recorded to. If that fails, the failure is
+     * kept for stopRecording to throw.
+     */
+    private void closeRecorder() {
+        Recorder closing = recorder;
+        recorder = null;
+        try {
+            closing.close();
+        } catch (IOException e) {
+            if (recordingFailure == null) {
+                recordingFailure = e;
+            }
+            else {
+                recordingFailure.addSuppressed(e);
+            }
+        }
+    }
+
+    /**
+     * Works out which parts of the display need repainting to go from a
+     * previous snapshot to the current state of the figures: the old
+     * and new bounds of every reflected copy of every figure that moved.
+     * @param previous The snapshot to compare with
+     * @param damage Where to put the result
+     */
+    private void computeDamage(Snapshot previous, Damage damage) {
+        damage.clear();
+        int count = numObjects;
+        if (previous.count != count || previous.tick == tick || figuresReplaced) {
+            figuresReplaced = false;
+            damage.setFull();
+            return;
+        }
+        int width = displayWidth;
+        int height = displayHeight;
+        long limit = (long) (damageAreaLimit * width * height);
+        int[] oldX = previous.xPosition;
+        int[] oldY = previous.yPosition;
+        int[] newX = figures.xPosition;
+        int[] newY = figures.yPosition;
+        for (int i = 0; i < count; i++) {
+            if (oldX[i] == newX[i] && oldY[i] == newY[i]) {
+                continue;
+            }
+            int w = figures.width[i];
+            int h = figures.height[i];
+            damage.addFigure(oldX[i], oldY[i], w, h, width, height);
+            damage.addFigure(newX[i], newY[i], w, h, width, height);
+            if ((i & 63) == 63 && damage.area(width, height) > limit) {
+                damage.setFull();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sets how much of the display may be damaged before the Model stops
+     * working out exactly where, and just reports the whole display.
+     * This is also where the View stops repainting region by region.
+     * @param fraction The fraction of the display's area, from 0 to 1
+     */
+    public void setDamageAreaLimit(double fraction) {
+        damageAreaLimit = fraction;
+    }
+
+    /**
+     * Returns how much of the display may be damaged before the whole
+     * display is treated as damaged
+     * @return The fraction of the display's area
+     */
+    public double getDamageAreaLimit() {
+        return damageAreaLimit;
+    }
+
+    /**
+     * Returns the most recently published state of the figures. Only
+     * one thread (normally the event dispatch thread) may call this,
+     * and the snapshot is only valid until its next call.
+     * @return A snapshot of the figures at the end of the latest tick
+     */
+    Snapshot acquireSnapshot() {
+        return snapshots.acquire();
+    }
+
+    /**
+     * Copies the current state of the figures into a snapshot the
+     * caller owns, rather than one of the model's own. Only the thread
+     * that steps the model may call this.
+     * @param snapshot The snapshot to copy into
+     */
+    void copyTo(Snapshot snapshot) {
+        snapshot.copyFrom(figures, numObjects, tick);
+    }
+
+    /**
+     * Returns the performance figures of the model and its views
+     * @return The model's metrics
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the number of steps taken since the model was created
+     * @return The current tick
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Returns the multiple of their initial speeds that the figures move at
+     * @return The speed factor last given to changeVelocity, or 1
+     */
+    public float getSpeedFactor() {
+        return speedFactor;
+    }
+
+    /**
+     * Sets new velocities, between ticks like setLimits
      */
     public void changeVelocity(float speedFactor) {
-    	int xDelta, yDelta, xDelta0, yDelta0;
-    	for (int i = 0; i < numObjects; i++) {
-    		xDelta = figures[i].getXDelta();
-    		yDelta = figures[i].getYDelta();
-    		xDelta0 = figures[i].getInitXDelta();
-    		yDelta0 = figures[i].getInitYDelta();
-    		figures[i].setXDelta((int) (Math.signum(xDelta) * Math.ceil(speedFactor * xDelta0)));
-    		figures[i].setYDelta((int) (Math.signum(yDelta) * Math.ceil(speedFactor * yDelta0)));
-    	}
+    	controls.postSpeed(speedFactor);
+    	applyChangesIfPaused();
     }
 }
\ No newline at end of file
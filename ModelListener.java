@@ -0,0 +1,66 @@
+package kaleidoscope;
+
+/**
+ * Receives the changes a Model makes, in place of the Observer
+ * interface the Model used to notify. The methods are called one at a
+ * time, on a thread the Model keeps for its listeners, so a slow
+ * listener doesn't hold up the simulation. Every change other than a
+ * tick is passed on, in order, but a listener that is still busy when
+ * several ticks have completed is only told of the latest one.
+ * <p>
+ * A listener that touches Swing components should still hand that
+ * work to the event dispatch thread, as the View does by asking Swing
+ * to repaint.
+ */
+interface ModelListener {
+
+    /**
+     * Called after the model has stepped to a new tick, or been sent to
+     * one by seek, and published its snapshot.
+     * @param tick The tick the figures are now at
+     * @param stepNanos How long the step took, in nanoseconds
+     * @param damage The parts of the display that changed, which are
+     * only valid during the call, or null if they are not known (as
+     * when ticks were skipped) and the whole display should be treated
+     * as changed
+     */
+    void tickCompleted(long tick, long stepNanos, Damage damage);
+
+    /**
+     * Called after the walls the figures bounce off have moved.
+     * @param width The new width of the display
+     * @param height The new height of the display
+     */
+    void limitsChanged(int width, int height);
+
+    /**
+     * Called after the speeds of the figures have changed.
+     * @param speedFactor The multiple of their initial speeds that the figures now move at
+     */
+    void velocityChanged(float speedFactor);
+
+    /**
+     * Called after figures have been added to the model.
+     * @param from The index of the first new figure
+     * @param to One past the index of the last new figure
+     */
+    void figuresAdded(int from, int to);
+
+    /**
+     * Called after figures have been removed from the model. Figures
+     * from later indices may have been moved into the range.
+     * @param from The first index whose figure was removed or replaced
+     * @param to One past the last such index
+     */
+    void figuresRemoved(int from, int to);
+
+    /**
+     * Called when the model stops recording by itself, rather than
+     * because stopRecording was called. The file holds every state up
+     * to the one that couldn't be recorded.
+     * @param cause Why the recording stopped: an IOException if the file
+     * couldn't be written, or an IllegalStateException if figures were
+     * added or removed, since a recording holds a fixed number of them
+     */
+    void recordingStopped(Exception cause);
+}
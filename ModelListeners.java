@@ -0,0 +1,110 @@
+package kaleidoscope;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The listeners registered with a Model, which passes every event on
+ * to all of them.
+ * <p>
+ * The listeners are kept in an array that is never changed once it has
+ * been published: adding or removing a listener makes a new array and
+ * swaps it in with compareAndSet. Passing an event on reads the array
+ * once and loops over it, so it takes no lock and allocates nothing,
+ * and a listener added or removed meanwhile only affects later events.
+ */
+final class ModelListeners implements ModelListener {
+    private static final ModelListener[] NONE = new ModelListener[0];
+    private final AtomicReference<ModelListener[]> listeners = new AtomicReference<ModelListener[]>(NONE);
+
+    /**
+     * Adds a listener, which is called after those added before it
+     * @param listener The listener to add
+     */
+    void add(ModelListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        while (true) {
+            ModelListener[] old = listeners.get();
+            ModelListener[] updated = Arrays.copyOf(old, old.length + 1);
+            updated[old.length] = listener;
+            if (listeners.compareAndSet(old, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes a listener, if it was added
+     * @param listener The listener to remove
+     */
+    void remove(ModelListener listener) {
+        while (true) {
+            ModelListener[] old = listeners.get();
+            int k = old.length - 1;
+            while (k >= 0 && old[k] != listener) {
+                k--;
+            }
+            if (k < 0) {
+                return;
+            }
+            ModelListener[] updated = new ModelListener[old.length - 1];
+            System.arraycopy(old, 0, updated, 0, k);
+            System.arraycopy(old, k + 1, updated, k, old.length - 1 - k);
+            if (listeners.compareAndSet(old, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of listeners
+     * @return The number of listeners
+     */
+    int size() {
+        return listeners.get().length;
+    }
+
+    @Override
+    public void tickCompleted(long tick, long stepNanos, Damage damage) {
+        for (ModelListener listener : listeners.get()) {
+            listener.tickCompleted(tick, stepNanos, damage);
+        }
+    }
+
+    @Override
+    public void limitsChanged(int width, int height) {
+        for (ModelListener listener : listeners.get()) {
+            listener.limitsChanged(width, height);
+        }
+    }
+
+    @Override
+    public void velocityChanged(float speedFactor) {
+        for (ModelListener listener : listeners.get()) {
+            listener.velocityChanged(speedFactor);
+        }
+    }
+
+    @Override
+    public void figuresAdded(int from, int to) {
+        for (ModelListener listener : listeners.get()) {
+            listener.figuresAdded(from, to);
+        }
+    }
+
+    @Override
+    public void figuresRemoved(int from, int to) {
+        for (ModelListener listener : listeners.get()) {
+            listener.figuresRemoved(from, to);
+        }
+    }
+
+    @Override
+    public void recordingStopped(Exception cause) {
+        for (ModelListener listener : listeners.get()) {
+            listener.recordingStopped(cause);
+        }
+    }
+}
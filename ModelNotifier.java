@@ -0,0 +1,214 @@
+package kaleidoscope;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Passes a Model's events on to its listeners from a thread of its
+ * own, so that a slow listener can't hold up the thread stepping the
+ * model.
+ * <p>
+ * Ticks are passed through three recycled slots in the same way a
+ * SnapshotBuffer passes snapshots: the model fills its "back" slot with
+ * the tick, the step time and a copy of the damage, and swaps it into
+ * the middle with one atomic operation, so a tick allocates nothing,
+ * never waits, and is always seen whole. If the listeners are still
+ * busy with an earlier tick, only the latest is passed on, and its
+ * damage is then given as null, since the ticks skipped changed the
+ * display too. The other events are rare, and are all passed on, in
+ * order, ahead of any tick that followed them.
+ * <p>
+ * The notifier thread is only started once there is a listener to
+ * tell. Ticks must not be passed on concurrently with each other.
+ */
+final class ModelNotifier implements ModelListener {
+    private static final int INDEX_MASK = 3;
+    /** Set in middle when it holds a tick the listeners haven't been told of. */
+    private static final int FRESH = 4;
+    private final ModelListeners listeners;
+    private final TickEvent[] ticks = {new TickEvent(), new TickEvent(), new TickEvent()};
+    private final AtomicInteger middle = new AtomicInteger(1);
+    /** The slot the model fills next, only used by the thread stepping it. */
+    private int back = 0;
+    /** The slot being passed on, only used by the notifier thread. */
+    private int front = 2;
+    /** The number of ticks passed on, counted by the model's thread and then the notifier's. */
+    private long sequence;
+    private long deliveredSequence;
+    /** The events other than ticks, waiting to be passed on. */
+    private final ConcurrentLinkedQueue<Runnable> events = new ConcurrentLinkedQueue<Runnable>();
+    private volatile Thread thread;
+
+    /**
+     * Constructor
+     * @param listeners The listeners to pass events on to
+     */
+    ModelNotifier(ModelListeners listeners) {
+        this.listeners = listeners;
+    }
+
+    @Override
+    public void tickCompleted(long tick, long stepNanos, Damage damage) {
+        if (listeners.size() == 0) {
+            return;
+        }
+        TickEvent event = ticks[back];
+        event.sequence = ++sequence;
+        event.tick = tick;
+        event.stepNanos = stepNanos;
+        event.damageKnown = damage != null;
+        if (damage != null) {
+            event.damage.copyFrom(damage);
+        }
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+        wake();
+    }
+
+    @Override
+    public void limitsChanged(final int width, final int height) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                listeners.limitsChanged(width, height);
+            }
+        });
+    }
+
+    @Override
+    public void velocityChanged(final float speedFactor) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                listeners.velocityChanged(speedFactor);
+            }
+        });
+    }
+
+    @Override
+    public void figuresAdded(final int from, final int to) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                listeners.figuresAdded(from, to);
+            }
+        });
+    }
+
+    @Override
+    public void figuresRemoved(final int from, final int to) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                listeners.figuresRemoved(from, to);
+            }
+        });
+    }
+
+    @Override
+    public void recordingStopped(final Exception cause) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                listeners.recordingStopped(cause);
+            }
+        });
+    }
+
+    /**
+     * Queues an event other than a tick, if there is anyone to tell
+     * @param event Tells the listeners of it
+     */
+    private void post(Runnable event) {
+        if (listeners.size() == 0) {
+            return;
+        }
+        events.add(event);
+        wake();
+    }
+
+    /**
+     * Wakes the notifier thread, starting it the first time
+     */
+    private void wake() {
+        Thread notifier = thread;
+        if (notifier == null) {
+            notifier = start();
+        }
+        LockSupport.unpark(notifier);
+    }
+
+    /**
+     * Starts the notifier thread, unless another thread just has
+     * @return The notifier thread
+     */
+    private synchronized Thread start() {
+        if (thread == null) {
+            Thread notifier = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop();
+                }
+            }, "kaleidoscope-listeners");
+            notifier.setDaemon(true);
+            notifier.start();
+            thread = notifier;
+        }
+        return thread;
+    }
+
+    /**
+     * The body of the notifier thread.
+     */
+    private void loop() {
+        while (true) {
+            boolean idle = true;
+            Runnable event;
+            while ((event = events.poll()) != null) {
+                idle = false;
+                deliver(event);
+            }
+            if ((middle.get() & FRESH) != 0) {
+                idle = false;
+                front = middle.getAndSet(front) & INDEX_MASK;
+                deliver(null);
+            }
+            if (idle) {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    /**
+     * Passes one event on. A listener that throws doesn't stop the
+     * others from being told of later events.
+     * @param event The event, or null for the tick in the front slot
+     */
+    private void deliver(Runnable event) {
+        try {
+            if (event != null) {
+                event.run();
+                return;
+            }
+            TickEvent tick = ticks[front];
+            boolean missed = tick.sequence != deliveredSequence + 1;
+            deliveredSequence = tick.sequence;
+            listeners.tickCompleted(tick.tick, tick.stepNanos,
+                    tick.damageKnown && !missed ? tick.damage : null);
+        } catch (RuntimeException e) {
+            Thread current = Thread.currentThread();
+            current.getUncaughtExceptionHandler().uncaughtException(current, e);
+        }
+    }
+
+    /**
+     * One tick, as passed from the model's thread to the notifier's.
+     */
+    private static final class TickEvent {
+        long sequence;
+        long tick;
+        long stepNanos;
+        boolean damageKnown;
+        final Damage damage = new Damage();
+    }
+}
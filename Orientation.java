@@ -0,0 +1,23 @@
+package kaleidoscope;
+
+/**
+ * The direction a reflected copy of a figure is drawn in. For triangles
+ * this is the direction the triangle points; for other figures UP and
+ * DOWN are drawn upright, and LEFT and RIGHT are drawn transposed (with
+ * their width and height swapped).
+ */
+public enum Orientation {
+    UP, DOWN, LEFT, RIGHT;
+
+    /** All the orientations, in ordinal order, without cloning values(). */
+    static final Orientation[] ALL = values();
+
+    /**
+     * Tells whether figures in this orientation have their width
+     * and height swapped
+     * @return true for LEFT and RIGHT
+     */
+    boolean isSideways() {
+        return this == LEFT || this == RIGHT;
+    }
+}
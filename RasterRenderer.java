@@ -0,0 +1,285 @@
+package kaleidoscope;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * A software rasterizer for the built-in shapes. It fills figures
+ * straight into the int[] behind a TYPE_INT_RGB image, then puts the
+ * whole image on the screen with one drawImage. Java2D instead sends
+ * every fillOval and fillPolygon through its general shape pipeline,
+ * which costs a lot per figure when there are thousands of small ones.
+ * <p>
+ * Each shape, in each orientation, is a table of row spans relative to
+ * its top left corner. Drawing a copy then takes one Arrays.fill per
+ * row, clipped to the clip rectangle. The tables are built to give
+ * exactly the pixels Java2D would:
+ * <ul>
+ * <li>Rectangles are whole rows.</li>
+ * <li>Triangles come from SceneRenderer's vertex templates. A pixel is
+ * filled when its center is inside the triangle after Java2D's stroke
+ * normalization, which moves integer vertices by a quarter of a pixel.</li>
+ * <li>The ball's spans are taken once from Java2D's own fillOval.
+ * Java2D draws ovals as Bezier curves, and the closest exact circle
+ * differs from it in up to 9 edge pixels per ball.</li>
+ * </ul>
+ * A RasterRenderer draws every color as opaque.
+ */
+class RasterRenderer {
+    /** How far Java2D's stroke normalization moves integer vertices. */
+    private static final double NORMALIZATION = 0.25;
+
+    /** The first pixel of each row of each shape, by type then orientation. */
+    final int[][][] spanStarts = new int[FigureType.ALL.length][Orientation.ALL.length][];
+    /** One past the last pixel of each row of each shape. */
+    final int[][][] spanEnds = new int[FigureType.ALL.length][Orientation.ALL.length][];
+    /** The image drawn into, the same size as the display. */
+    private BufferedImage image;
+    int[] pixels;
+    int stride;
+    /** The copies filled and skipped as off-screen this frame. */
+    int drawnCopies;
+    int culledCopies;
+    /** The clip rectangle of the current frame, as half-open ranges. */
+    int clipX0;
+    int clipY0;
+    int clipX1;
+    int clipY1;
+
+    /**
+     * Constructor
+     * @param model The Model whose figure sizes are used
+     * @param triXTemplates The x offsets of the triangle's vertices, by orientation
+     * @param triYTemplates The y offsets of the triangle's vertices, by orientation
+     */
+    RasterRenderer(Model model, int[][] triXTemplates, int[][] triYTemplates) {
+        int[] ballStarts = new int[model.BALL_SIZE];
+        int[] ballEnds = new int[model.BALL_SIZE];
+        ovalSpans(model.BALL_SIZE, ballStarts, ballEnds);
+        int[] rectStarts = new int[model.RECT_HEIGHT];
+        int[] rectEnds = new int[model.RECT_HEIGHT];
+        Arrays.fill(rectEnds, model.RECT_WIDTH);
+        int[] sidewaysRectStarts = new int[model.RECT_WIDTH];
+        int[] sidewaysRectEnds = new int[model.RECT_WIDTH];
+        Arrays.fill(sidewaysRectEnds, model.RECT_HEIGHT);
+        for (Orientation orientation : Orientation.ALL) {
+            int o = orientation.ordinal();
+            spanStarts[FigureType.BALL.ordinal()][o] = ballStarts;
+            spanEnds[FigureType.BALL.ordinal()][o] = ballEnds;
+            spanStarts[FigureType.RECT.ordinal()][o] = orientation.isSideways() ? sidewaysRectStarts : rectStarts;
+            spanEnds[FigureType.RECT.ordinal()][o] = orientation.isSideways() ? sidewaysRectEnds : rectEnds;
+            int rows = orientation.isSideways() ? model.TRI_WIDTH : model.TRI_HEIGHT;
+            spanStarts[FigureType.TRI.ordinal()][o] = new int[rows];
+            spanEnds[FigureType.TRI.ordinal()][o] = new int[rows];
+            triangleSpans(triXTemplates[o], triYTemplates[o],
+                    spanStarts[FigureType.TRI.ordinal()][o], spanEnds[FigureType.TRI.ordinal()][o]);
+        }
+    }
+
+    /**
+     * Works out the row spans of a circle by filling it with Java2D
+     * @param size The diameter of the circle
+     * @param starts Loaded with the first pixel of each row
+     * @param ends Loaded with one past the last pixel of each row
+     */
+    private static void ovalSpans(int size, int[] starts, int[] ends) {
+        BufferedImage mask = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics g = mask.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillOval(0, 0, size, size);
+        g.dispose();
+        int[] maskPixels = ((DataBufferInt) mask.getRaster().getDataBuffer()).getData();
+        for (int row = 0; row < size; row++) {
+            int start = 0;
+            while (start < size && maskPixels[row * size + start] == 0) {
+                start++;
+            }
+            int end = size;
+            while (end > start && maskPixels[row * size + end - 1] == 0) {
+                end--;
+            }
+            starts[row] = start;
+            ends[row] = end;
+        }
+    }
+
+    /**
+     * Works out the row spans of a triangle, filling each pixel whose
+     * center is inside it once Java2D has normalized its vertices
+     * @param xs The x offsets of the vertices
+     * @param ys The y offsets of the vertices
+     * @param starts Loaded with the first pixel of each row
+     * @param ends Loaded with one past the last pixel of each row
+     */
+    private static void triangleSpans(int[] xs, int[] ys, int[] starts, int[] ends) {
+        for (int row = 0; row < starts.length; row++) {
+            double center = row + 0.5 - NORMALIZATION;
+            double left = Double.MAX_VALUE;
+            double right = -Double.MAX_VALUE;
+            for (int k = 0; k < 3; k++) {
+                int x0 = xs[k];
+                int y0 = ys[k];
+                int x1 = xs[(k + 1) % 3];
+                int y1 = ys[(k + 1) % 3];
+                if (y0 == y1 || center < Math.min(y0, y1) || center >= Math.max(y0, y1)) {
+                    continue;
+                }
+                double x = x0 + (center - y0) * (x1 - x0) / (y1 - y0);
+                left = Math.min(left, x);
+                right = Math.max(right, x);
+            }
+            if (left <= right) {
+                starts[row] = (int) Math.ceil(left + NORMALIZATION - 0.5);
+                ends[row] = (int) Math.ceil(right + NORMALIZATION - 0.5);
+            }
+        }
+    }
+
+    /**
+     * Starts a frame: makes sure the image is the size of the display,
+     * and sets the clip rectangle that everything is drawn inside
+     * @param width The width of the display
+     * @param height The height of the display
+     * @param clipX The left of the area to draw, or 0 for all of it
+     * @param clipY The top of the area to draw
+     * @param clipWidth The width of the area to draw, or the display width
+     * @param clipHeight The height of the area to draw
+     */
+    void begin(int width, int height, int clipX, int clipY, int clipWidth, int clipHeight) {
+        width = Math.max(width, 1);
+        height = Math.max(height, 1);
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            stride = width;
+        }
+        clipX0 = Math.max(clipX, 0);
+        clipY0 = Math.max(clipY, 0);
+        clipX1 = Math.max(Math.min(clipX + clipWidth, width), clipX0);
+        clipY1 = Math.max(Math.min(clipY + clipHeight, height), clipY0);
+        drawnCopies = 0;
+        culledCopies = 0;
+    }
+
+    /**
+     * Fills the clip rectangle with one color
+     * @param rgb The color, as 0xRRGGBB
+     */
+    void fillBackground(int rgb) {
+        fillRect(rgb, clipX0, clipY0, clipX1, clipY1);
+    }
+
+    /**
+     * Fills a rectangle with one color. Rectangles that don't overlap
+     * may be filled by different threads at once.
+     * @param rgb The color, as 0xRRGGBB
+     * @param x0 The left of the rectangle
+     * @param y0 The top of the rectangle
+     * @param x1 One past the right of the rectangle
+     * @param y1 One past the bottom of the rectangle
+     */
+    final void fillRect(int rgb, int x0, int y0, int x1, int y1) {
+        for (int y = y0; y < y1; y++) {
+            Arrays.fill(pixels, y * stride + x0, y * stride + x1, rgb);
+        }
+    }
+
+    /**
+     * Fills the 8 copies of every figure of one type, skipping copies
+     * whose bounding boxes are outside the clip rectangle
+     * @param snapshot The figures to be drawn (and reflected)
+     * @param type The type of figure to draw
+     * @param w The width of figures of the type
+     * @param h The height of figures of the type
+     * @param rgb The color of figures of the type, as 0xRRGGBB
+     * @param width The width of the display
+     * @param height The height of the display
+     */
+    void fillFigures(Snapshot snapshot, FigureType type, int w, int h, int rgb, int width, int height) {
+        byte code = type.code();
+        byte[] types = snapshot.type;
+        int[][] starts = spanStarts[type.ordinal()];
+        int[][] ends = spanEnds[type.ordinal()];
+        for (int i = 0; i < snapshot.count; i++) {
+            if (types[i] != code) {
+                continue;
+            }
+            int x = snapshot.xPosition[i];
+            int y = snapshot.yPosition[i];
+            for (int copy = 0; copy < Reflection.COPIES; copy++) {
+                Orientation orientation = Reflection.orientation(copy);
+                int copyX = Reflection.x(copy, x, y, w, h, width, height);
+                int copyY = Reflection.y(copy, x, y, w, h, width, height);
+                int copyWidth = orientation.isSideways() ? h : w;
+                int copyHeight = orientation.isSideways() ? w : h;
+                if (copyX >= clipX1 || copyY >= clipY1 || copyX + copyWidth <= clipX0 || copyY + copyHeight <= clipY0) {
+                    culledCopies++;
+                    continue;
+                }
+                int o = orientation.ordinal();
+                fillSpans(copyX, copyY, starts[o], ends[o], rgb, clipX0, clipY0, clipX1, clipY1);
+                drawnCopies++;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of copies filled since the frame began
+     * @return The copies that were at least partly inside the clip
+     */
+    final int getDrawnCopies() {
+        return drawnCopies;
+    }
+
+    /**
+     * Returns the number of copies skipped since the frame began
+     * @return The copies that were entirely outside the clip
+     */
+    final int getCulledCopies() {
+        return culledCopies;
+    }
+
+    /**
+     * Fills one shape, clipped to a rectangle. Shapes clipped to
+     * rectangles that don't overlap may be filled by different threads
+     * at once.
+     * @param x The x position of the shape
+     * @param y The y position of the shape
+     * @param starts The first pixel of each row, relative to x
+     * @param ends One past the last pixel of each row, relative to x
+     * @param rgb The color, as 0xRRGGBB
+     * @param x0 The left of the clip rectangle
+     * @param y0 The top of the clip rectangle
+     * @param x1 One past the right of the clip rectangle
+     * @param y1 One past the bottom of the clip rectangle
+     */
+    final void fillSpans(int x, int y, int[] starts, int[] ends, int rgb, int x0, int y0, int x1, int y1) {
+        int fromRow = Math.max(0, y0 - y);
+        int toRow = Math.min(starts.length, y1 - y);
+        if (fromRow >= toRow || x >= x1) {
+            return;
+        }
+        int[] p = pixels;
+        int row0 = (y + fromRow) * stride;
+        for (int row = fromRow; row < toRow; row++, row0 += stride) {
+            int from = Math.max(x + starts[row], x0);
+            int to = Math.min(x + ends[row], x1);
+            if (from < to) {
+                Arrays.fill(p, row0 + from, row0 + to, rgb);
+            }
+        }
+    }
+
+    /**
+     * Draws the frame on a Graphics. Only the clip rectangle has been
+     * drawn into this frame, and the Graphics' own clip keeps the rest
+     * of the image off the screen.
+     * @param g The Graphics on which to draw the frame
+     */
+    void present(Graphics g) {
+        g.drawImage(image, 0, 0, null);
+    }
+}
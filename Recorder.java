@@ -0,0 +1,163 @@
+package kaleidoscope;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records the state of a Model's figures at every tick to a file, for
+ * a Replayer to play back without running the simulation.
+ * <p>
+ * The file is written through memory mappings rather than a stream:
+ * the figures' positions go straight from the FigureStore's arrays into
+ * the mapped pages with bulk IntBuffer puts, and the operating system
+ * writes the pages out in the background. Every record is the same
+ * size, so record r is found by arithmetic rather than by reading the
+ * records before it. The layout, in little-endian order, is:
+ * <ul>
+ * <li>A header: the int MAGIC, the int VERSION, the number of figures
+ * n, an int of zero, the number of records as a long, then the n
+ * figure type codes as bytes, padded with zeros to a multiple of 8.</li>
+ * <li>The records, one after another: the tick as a long, the width
+ * and height of the display as ints, then the n x positions and the n
+ * y positions as ints.</li>
+ * </ul>
+ * The record count in the header is only updated once a record is
+ * complete, so a file cut short by a crash can still be read up to
+ * its last whole record. The file is mapped a region of about
+ * REGION_SIZE bytes at a time, so it may grow far beyond what one
+ * mapping can hold.
+ */
+final class Recorder {
+    /** The first int of every recording. */
+    static final int MAGIC = 0x4B524543;
+    /** The version of the layout. */
+    static final int VERSION = 1;
+    /** The byte offset of the record count in the header. */
+    static final int RECORD_COUNT_OFFSET = 16;
+    /** The byte offset of the figure types in the header. */
+    static final int TYPES_OFFSET = 24;
+    /** The number of bytes in a record before the positions. */
+    static final int RECORD_HEADER_SIZE = 16;
+    /** About how many bytes of records are mapped at once. */
+    static final int REGION_SIZE = 64 * 1024 * 1024;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final int count;
+    private final int headerSize;
+    private final int recordSize;
+    private final int recordsPerRegion;
+    /** The region records are being written into, and its first record. */
+    private MappedByteBuffer region;
+    private IntBuffer regionInts;
+    private long regionStart = -1;
+    private long records;
+
+    /**
+     * Constructor. Creates the file, or empties it if it exists, and
+     * writes the header.
+     * @param path The file to record into
+     * @param store The store holding the figures
+     * @param count The number of figures, which must not change while recording
+     * @throws IOException If the file can't be created
+     */
+    Recorder(File path, FigureStore store, int count) throws IOException {
+        this.count = count;
+        headerSize = headerSize(count);
+        recordSize = recordSize(count);
+        recordsPerRegion = recordsPerRegion(recordSize);
+        file = new RandomAccessFile(path, "rw");
+        try {
+            file.setLength(0);
+            channel = file.getChannel();
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerSize);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(0).putLong(0);
+            header.put(store.type, 0, count);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the size of the header of a recording
+     * @param count The number of figures
+     * @return The size in bytes
+     */
+    static int headerSize(int count) {
+        return TYPES_OFFSET + (count + 7) / 8 * 8;
+    }
+
+    /**
+     * Returns the size of one record of a recording
+     * @param count The number of figures
+     * @return The size in bytes
+     */
+    static int recordSize(int count) {
+        return RECORD_HEADER_SIZE + 8 * count;
+    }
+
+    /**
+     * Returns how many records are mapped at once
+     * @param recordSize The size of one record
+     * @return The number of records in a region, at least 1
+     */
+    static int recordsPerRegion(int recordSize) {
+        return Math.max(1, REGION_SIZE / recordSize);
+    }
+
+    /**
+     * Appends the state of the figures as one record
+     * @param store The store holding the figures
+     * @param tick The tick the figures are at
+     * @param width The width of the display
+     * @param height The height of the display
+     * @throws IOException If the file can't be extended
+     */
+    void record(FigureStore store, long tick, int width, int height) throws IOException {
+        long start = records / recordsPerRegion * recordsPerRegion;
+        if (start != regionStart) {
+            long offset = headerSize + start * recordSize;
+            region = channel.map(FileChannel.MapMode.READ_WRITE, offset, (long) recordsPerRegion * recordSize);
+            region.order(ByteOrder.LITTLE_ENDIAN);
+            regionInts = region.asIntBuffer();
+            regionStart = start;
+        }
+        int at = (int) (records - start) * recordSize;
+        region.putLong(at, tick);
+        region.putInt(at + 8, width);
+        region.putInt(at + 12, height);
+        regionInts.position((at + RECORD_HEADER_SIZE) / 4);
+        regionInts.put(store.xPosition, 0, count);
+        regionInts.put(store.yPosition, 0, count);
+        records++;
+        header.putLong(RECORD_COUNT_OFFSET, records);
+    }
+
+    /**
+     * Returns the number of records written so far
+     * @return The number of records
+     */
+    long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * Finishes the recording, cutting off the unused end of the last
+     * region, and closes the file
+     * @throws IOException If the file can't be closed
+     */
+    void close() throws IOException {
+        try {
+            channel.truncate(headerSize + records * recordSize);
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package kaleidoscope;
+
+/**
+ * The arithmetic of a kaleidoscope: where the 8 reflected copies of a
+ * figure go. Copy 0 is the figure itself; copies 1 to 3 mirror it left
+ * to right, top to bottom, and both; copies 4 to 7 do the same to its
+ * transpose (x and y swapped). Transposed copies have their width and
+ * height swapped too.
+ */
+final class Reflection {
+    /** The number of copies drawn of every figure. */
+    static final int COPIES = 8;
+    /** The way each copy faces. */
+    private static final Orientation[] ORIENTATIONS = {
+        Orientation.UP, Orientation.UP, Orientation.DOWN, Orientation.DOWN,
+        Orientation.LEFT, Orientation.RIGHT, Orientation.LEFT, Orientation.RIGHT
+    };
+
+    private Reflection() {
+    }
+
+    /**
+     * Returns the x coordinate of the left of one copy of a figure
+     * @param copy Which copy (0 to 7)
+     * @param x The x position of the figure
+     * @param y The y position of the figure
+     * @param w The width of the figure
+     * @param h The height of the figure
+     * @param width The width of the display
+     * @param height The height of the display
+     * @return The x coordinate of the copy
+     */
+    static int x(int copy, int x, int y, int w, int h, int width, int height) {
+        switch (copy) {
+        case 0: case 2: return x;
+        case 1: case 3: return width - x - w;
+        case 4: case 6: return y - h;
+        default: return height - y;
+        }
+    }
+
+    /**
+     * Returns the y coordinate of the top of one copy of a figure
+     * @param copy Which copy (0 to 7)
+     * @param x The x position of the figure
+     * @param y The y position of the figure
+     * @param w The width of the figure
+     * @param h The height of the figure
+     * @param width The width of the display
+     * @param height The height of the display
+     * @return The y coordinate of the copy
+     */
+    static int y(int copy, int x, int y, int w, int h, int width, int height) {
+        switch (copy) {
+        case 0: case 1: return y;
+        case 2: case 3: return height - y - h;
+        case 4: case 5: return x - w;
+        default: return width - x;
+        }
+    }
+
+    /**
+     * Returns the way one copy of a figure faces
+     * @param copy Which copy (0 to 7)
+     * @return The orientation of the copy
+     */
+    static Orientation orientation(int copy) {
+        return ORIENTATIONS[copy];
+    }
+}
@@ -0,0 +1,282 @@
+package kaleidoscope;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Plays back a recording made by a Recorder, as a series of Snapshots
+ * that a View, HeadlessRenderer or ExportPipeline can draw in place of
+ * a running Model's.
+ * <p>
+ * The recording is memory-mapped, a region at a time, and each record
+ * is copied straight from the mapped pages into a snapshot's arrays
+ * with bulk IntBuffer gets. Nothing is parsed, and nothing is read
+ * except the records played.
+ * <p>
+ * When the recording is opened, the tick of every record is read into
+ * an index, so that seek can find any tick with a binary search. A
+ * tick may have more than one record, if the model was sent back to it
+ * with Model.seek, or was resized while paused at it. Seeking to such
+ * a tick goes to the latest of its records.
+ */
+final class Replayer implements SnapshotSource {
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int count;
+    private final byte[] types;
+    private final int headerSize;
+    private final int recordSize;
+    private final int recordsPerRegion;
+    private final int records;
+    /** The ticks of the records, in order of tick. */
+    private final long[] indexTicks;
+    /** The record of each entry in indexTicks, or null if the records are already in order. */
+    private final int[] indexRecords;
+    /** The mapped regions, each mapped when it is first read. */
+    private final MappedByteBuffer[] regions;
+    private final IntBuffer[] regionInts;
+    /** The next record to play. */
+    private int position;
+    /** The snapshot returned by acquireSnapshot. */
+    private final Snapshot current = new Snapshot();
+    private int currentWidth;
+    private int currentHeight;
+
+    /**
+     * Constructor. Opens a recording and reads its index.
+     * @param path The recording
+     * @throws IOException If the file can't be read, or isn't a recording
+     */
+    Replayer(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            channel = file.getChannel();
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(channel.size(), Recorder.TYPES_OFFSET));
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.limit() < Recorder.TYPES_OFFSET || header.getInt(0) != Recorder.MAGIC) {
+                throw new IOException(path + " is not a kaleidoscope recording");
+            }
+            if (header.getInt(4) != Recorder.VERSION) {
+                throw new IOException(path + " is a recording of unknown version " + header.getInt(4));
+            }
+            count = header.getInt(8);
+            headerSize = Recorder.headerSize(count);
+            recordSize = Recorder.recordSize(count);
+            recordsPerRegion = Recorder.recordsPerRegion(recordSize);
+            long complete = (channel.size() - headerSize) / recordSize;
+            records = (int) Math.max(0, Math.min(header.getLong(Recorder.RECORD_COUNT_OFFSET), complete));
+            types = new byte[count];
+            MappedByteBuffer typeBuffer = channel.map(FileChannel.MapMode.READ_ONLY, Recorder.TYPES_OFFSET, count);
+            typeBuffer.get(types);
+            regions = new MappedByteBuffer[(records + recordsPerRegion - 1) / recordsPerRegion];
+            regionInts = new IntBuffer[regions.length];
+            indexTicks = new long[records];
+            indexRecords = buildIndex();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        current.damage.setFull();
+    }
+
+    /**
+     * Reads the tick of every record into indexTicks, and sorts them if
+     * they are out of order
+     * @return The records in order of tick, or null if they already are
+     * @throws IOException If a region can't be mapped
+     */
+    private int[] buildIndex() throws IOException {
+        boolean ordered = true;
+        for (int r = 0; r < records; r++) {
+            indexTicks[r] = region(r).getLong(offsetInRegion(r));
+            if (r > 0 && indexTicks[r] <= indexTicks[r - 1]) {
+                ordered = false;
+            }
+        }
+        if (ordered) {
+            return null;
+        }
+        Integer[] order = new Integer[records];
+        for (int r = 0; r < records; r++) {
+            order[r] = r;
+        }
+        final long[] ticks = indexTicks.clone();
+        // The sort is stable, so records of the same tick stay in the order they were made
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(ticks[a], ticks[b]);
+            }
+        });
+        int[] sorted = new int[records];
+        for (int k = 0; k < records; k++) {
+            sorted[k] = order[k];
+            indexTicks[k] = ticks[order[k]];
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns the region holding a record, mapping it if need be
+     * @param record The number of the record
+     * @return The region
+     * @throws IOException If the region can't be mapped
+     */
+    private MappedByteBuffer region(int record) throws IOException {
+        int r = record / recordsPerRegion;
+        if (regions[r] == null) {
+            long offset = headerSize + (long) r * recordsPerRegion * recordSize;
+            long size = Math.min((long) recordsPerRegion, records - (long) r * recordsPerRegion) * recordSize;
+            regions[r] = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+            regions[r].order(ByteOrder.LITTLE_ENDIAN);
+            regionInts[r] = regions[r].asIntBuffer();
+        }
+        return regions[r];
+    }
+
+    /**
+     * Returns where a record starts in its region
+     * @param record The number of the record
+     * @return The byte offset
+     */
+    private int offsetInRegion(int record) {
+        return record % recordsPerRegion * recordSize;
+    }
+
+    /**
+     * Returns the number of figures in the recording
+     * @return The number of figures
+     */
+    int getFigureCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of records in the recording
+     * @return The number of records
+     */
+    int getRecordCount() {
+        return records;
+    }
+
+    /**
+     * Returns the earliest tick recorded
+     * @return The tick, or -1 if there are no records
+     */
+    long getFirstTick() {
+        return records == 0 ? -1 : indexTicks[0];
+    }
+
+    /**
+     * Returns the latest tick recorded
+     * @return The tick, or -1 if there are no records
+     */
+    long getLastTick() {
+        return records == 0 ? -1 : indexTicks[records - 1];
+    }
+
+    /**
+     * Moves playback to the latest tick at or before the given one, so
+     * that the next record read is that tick's
+     * @param tick The tick to go to
+     * @return false if the recording starts after the tick, in which
+     * case playback moves to the start
+     */
+    boolean seek(long tick) {
+        int k = Arrays.binarySearch(indexTicks, tick);
+        if (k < 0) {
+            k = -k - 2;
+        }
+        else {
+            // Take the last of any records of the same tick
+            while (k + 1 < records && indexTicks[k + 1] == tick) {
+                k++;
+            }
+        }
+        if (k < 0) {
+            position = 0;
+            return false;
+        }
+        position = indexRecords == null ? k : indexRecords[k];
+        return true;
+    }
+
+    /**
+     * Copies the next record into a snapshot, and moves on to the record after it
+     * @param snapshot The snapshot to copy into
+     * @return false if there are no more records, in which case the
+     * snapshot is unchanged
+     * @throws IOException If the record's region can't be mapped
+     */
+    boolean readNext(Snapshot snapshot) throws IOException {
+        if (position >= records) {
+            return false;
+        }
+        int record = position++;
+        MappedByteBuffer region = region(record);
+        IntBuffer ints = regionInts[record / recordsPerRegion];
+        int at = offsetInRegion(record);
+        snapshot.ensureCapacity(count);
+        snapshot.tick = region.getLong(at);
+        snapshot.count = count;
+        currentWidth = region.getInt(at + 8);
+        currentHeight = region.getInt(at + 12);
+        ints.position((at + Recorder.RECORD_HEADER_SIZE) / 4);
+        ints.get(snapshot.xPosition, 0, count);
+        ints.get(snapshot.yPosition, 0, count);
+        System.arraycopy(types, 0, snapshot.type, 0, count);
+        return true;
+    }
+
+    /**
+     * Plays the next record into the snapshot that acquireSnapshot
+     * returns. At the end of the recording, the last record stays.
+     * @return false if there were no more records
+     * @throws IOException If the record's region can't be mapped
+     */
+    boolean advance() throws IOException {
+        return readNext(current);
+    }
+
+    /**
+     * Returns the record last played by advance. Its damage is always
+     * full, since the records are not compared.
+     * @return The snapshot, which is reused by the next call to advance
+     */
+    @Override
+    public Snapshot acquireSnapshot() {
+        return current;
+    }
+
+    /**
+     * Returns the width of the display in the last record read
+     * @return The width, in pixels
+     */
+    int getRecordedWidth() {
+        return currentWidth;
+    }
+
+    /**
+     * Returns the height of the display in the last record read
+     * @return The height, in pixels
+     */
+    int getRecordedHeight() {
+        return currentHeight;
+    }
+
+    /**
+     * Closes the recording
+     * @throws IOException If it can't be closed
+     */
+    void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,598 @@
+package kaleidoscope;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Paints a snapshot of the Model as a kaleidoscope: a background, then
+ * the 8 reflected copies of every figure, each figure type drawn by the
+ * FigureRenderer registered for it. The View uses a SceneRenderer to
+ * paint itself, and the HeadlessRenderer uses one to paint frames into
+ * images, so both draw exactly the same pictures.
+ * <p>
+ * A SceneRenderer keeps scratch state between paints, so it must only
+ * be used by one thread at a time.
+ */
+class SceneRenderer {
+    /** The Model whose figure sizes are used. */
+    private final Model model;
+    /** The color of each figure type, indexed by ordinal. */
+    private final Color[] figureColors = new Color[FigureType.ALL.length];
+    private Color bgColor = Color.BLACK;
+    /** The renderer of each figure type, indexed by ordinal. */
+    private final FigureRenderer[] renderers = new FigureRenderer[FigureType.ALL.length];
+    /** Scratch flags marking the types already painted this frame. */
+    private final boolean[] typePainted = new boolean[FigureType.ALL.length];
+    /** Pre-rendered images of the figures, used when spritesEnabled. */
+    private final SpriteCache sprites = new SpriteCache();
+    /** Off by default: in benchmark-baseline.txt, blits are 2 to 20 times slower than fills. */
+    private boolean spritesEnabled;
+    /** Fills the built-in shapes into an int[] raster, if not null. */
+    private RasterRenderer raster;
+    private boolean rasterEnabled;
+    /** Whether the raster draws primaries only, and reflects them. */
+    private boolean symmetryEnabled;
+    /** The pool raster tiles are filled on, or null to fill on the painting thread. */
+    private ForkJoinPool tilePool;
+    /** The configuration sprites are made compatible with, if known. */
+    private GraphicsConfiguration graphicsConfiguration;
+    /** Vertex offsets of a triangle at (0, 0), indexed by orientation. */
+    private final int[][] triXTemplates = new int[Orientation.ALL.length][3];
+    private final int[][] triYTemplates = new int[Orientation.ALL.length][3];
+    /** The area being painted this frame: the clip, within the display. */
+    private int clipX0;
+    private int clipY0;
+    private int clipX1;
+    private int clipY1;
+    /** The copies painted and skipped as off-screen in the last paint. */
+    private int drawnCopies;
+    private int culledCopies;
+    /** Scratch vertex arrays, reused by every triangle painted. */
+    private final int[] triXCoords = new int[3];
+    private final int[] triYCoords = new int[3];
+
+    /**
+     * Constructor
+     * @param model The Model whose figures are to be painted
+     */
+    SceneRenderer(Model model) {
+        this.model = model;
+        figureColors[FigureType.BALL.ordinal()] = Color.green.darker();
+        figureColors[FigureType.RECT.ordinal()] = Color.blue.darker();
+        figureColors[FigureType.TRI.ordinal()] = Color.red.darker();
+        getUpCoords(0, 0, triXTemplates[Orientation.UP.ordinal()], triYTemplates[Orientation.UP.ordinal()]);
+        getDownCoords(0, 0, triXTemplates[Orientation.DOWN.ordinal()], triYTemplates[Orientation.DOWN.ordinal()]);
+        getLeftCoords(0, 0, triXTemplates[Orientation.LEFT.ordinal()], triYTemplates[Orientation.LEFT.ordinal()]);
+        getRightCoords(0, 0, triXTemplates[Orientation.RIGHT.ordinal()], triYTemplates[Orientation.RIGHT.ordinal()]);
+        registerRenderer(FigureType.BALL, new BallRenderer());
+        registerRenderer(FigureType.RECT, new RectangleRenderer());
+        registerRenderer(FigureType.TRI, new TriangleRenderer());
+    }
+
+    /**
+     * Sets the renderer used to paint figures of the given type,
+     * replacing any renderer registered for it before.
+     * @param type The figure type to be painted
+     * @param renderer The renderer to paint it with
+     */
+    void registerRenderer(FigureType type, FigureRenderer renderer) {
+        renderers[type.ordinal()] = renderer;
+    }
+
+    /**
+     * Sets the color of every figure of a type
+     * @param type The figure type
+     * @param color The color to paint it
+     */
+    void setColor(FigureType type, Color color) {
+        figureColors[type.ordinal()] = color;
+        sprites.invalidate();
+    }
+
+    /**
+     * Returns the color figures of a type are painted in
+     * @param type The figure type
+     * @return The color of the type
+     */
+    Color getColor(FigureType type) {
+        return figureColors[type.ordinal()];
+    }
+
+    /**
+     * Sets the background color
+     * @param color The color to fill the background with
+     */
+    void setBackground(Color color) {
+        bgColor = color;
+    }
+
+    /**
+     * Returns the background color
+     * @return The color the background is filled with
+     */
+    Color getBackground() {
+        return bgColor;
+    }
+
+    /**
+     * Turns drawing from pre-rendered sprites on or off. They are off
+     * unless this is called.
+     * @param enabled true to draw figures from the sprite cache
+     */
+    void setSpritesEnabled(boolean enabled) {
+        spritesEnabled = enabled;
+    }
+
+    /**
+     * Turns the software rasterizer on or off. While it is on, the
+     * built-in shapes are filled straight into an image, which is drawn
+     * with one drawImage; figure types with renderers of their own are
+     * then painted over it with Java2D.
+     * @param enabled true to draw the built-in shapes with a RasterRenderer
+     */
+    void setRasterEnabled(boolean enabled) {
+        rasterEnabled = enabled;
+        makeRaster();
+    }
+
+    /**
+     * Turns symmetry mode on or off. In symmetry mode the software
+     * rasterizer is used, whether or not it is enabled, but it only fills
+     * the primary copy of each figure, and a SymmetryRenderer makes the
+     * other 7 copies by reflecting them. Tiles are not used.
+     * @param enabled true to draw with a SymmetryRenderer
+     */
+    void setSymmetryEnabled(boolean enabled) {
+        symmetryEnabled = enabled;
+        makeRaster();
+    }
+
+    /**
+     * Chooses whether the software rasterizer fills the frame on the
+     * painting thread, or splits it into tiles filled in parallel
+     * @param pool The pool to fill tiles on, or null for one thread
+     */
+    void setTilePool(ForkJoinPool pool) {
+        tilePool = pool;
+        makeRaster();
+    }
+
+    /**
+     * Makes the kind of raster renderer that the settings call for
+     */
+    private void makeRaster() {
+        if (symmetryEnabled) {
+            raster = new SymmetryRenderer(model, triXTemplates, triYTemplates);
+        }
+        else if (!rasterEnabled) {
+            raster = null;
+        }
+        else if (tilePool != null) {
+            raster = new TileRenderer(model, triXTemplates, triYTemplates, tilePool, TileRenderer.DEFAULT_TILE_SIZE);
+        }
+        else {
+            raster = new RasterRenderer(model, triXTemplates, triYTemplates);
+        }
+    }
+
+    /**
+     * Sets the configuration that sprites should be compatible with
+     * @param gc The configuration of the destination, or null for plain ARGB images
+     */
+    void setGraphicsConfiguration(GraphicsConfiguration gc) {
+        graphicsConfiguration = gc;
+    }
+
+    /**
+     * Returns the sprite cache, for its hit and miss counts
+     * @return The cache of pre-rendered figures
+     */
+    SpriteCache getSprites() {
+        return sprites;
+    }
+
+    /**
+     * Returns the number of figure copies painted by the last paint
+     * @return The copies that were at least partly inside the clip
+     */
+    int getDrawnCopies() {
+        return drawnCopies;
+    }
+
+    /**
+     * Returns the number of figure copies skipped by the last paint
+     * @return The copies that were entirely outside the clip
+     */
+    int getCulledCopies() {
+        return culledCopies;
+    }
+
+    /**
+     * Paints a snapshot of the figures. Figures are painted in batches:
+     * all the figure types of one color, one type after another, then
+     * the types of the next color. Only the area inside the clip is
+     * cleared, since the rest is assumed not to have changed, and copies
+     * of figures whose bounding boxes are outside it are not painted.
+     * @param g The Graphics on which to paint things.
+     * @param snapshot The figures to paint
+     * @param width The width of the display
+     * @param height The height of the display
+     */
+    void paint(Graphics g, Snapshot snapshot, int width, int height) {
+        Rectangle clip = g.getClipBounds();
+        if (clip != null) {
+            clipX0 = Math.max(clip.x, 0);
+            clipY0 = Math.max(clip.y, 0);
+            clipX1 = Math.min(clip.x + clip.width, width);
+            clipY1 = Math.min(clip.y + clip.height, height);
+        }
+        else {
+            clipX0 = 0;
+            clipY0 = 0;
+            clipX1 = width;
+            clipY1 = height;
+        }
+        drawnCopies = 0;
+        culledCopies = 0;
+        if (raster != null) {
+            paintRaster(g, snapshot, width, height);
+            return;
+        }
+        g.setColor(bgColor);
+        if (clip != null) {
+            g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        }
+        else {
+            g.fillRect(0, 0, width, height);
+        }
+        for (int t = 0; t < typePainted.length; t++) {
+            typePainted[t] = false;
+        }
+        for (int t = 0; t < typePainted.length; t++) {
+            if (typePainted[t]) {
+                continue;
+            }
+            Color color = figureColors[t];
+            g.setColor(color);
+            for (int u = t; u < typePainted.length; u++) {
+                if (!typePainted[u] && figureColors[u].equals(color)) {
+                    paintFigures(g, snapshot, FigureType.ALL[u], color, width, height);
+                    typePainted[u] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Paints a snapshot of the figures with the software rasterizer,
+     * in the same order as paint
+     * @param g The Graphics on which to paint things.
+     * @param snapshot The figures to paint
+     * @param width The width of the display
+     * @param height The height of the display
+     */
+    private void paintRaster(Graphics g, Snapshot snapshot, int width, int height) {
+        raster.begin(width, height, clipX0, clipY0, clipX1 - clipX0, clipY1 - clipY0);
+        raster.fillBackground(bgColor.getRGB());
+        for (int t = 0; t < typePainted.length; t++) {
+            typePainted[t] = false;
+        }
+        for (int t = 0; t < typePainted.length; t++) {
+            if (typePainted[t]) {
+                continue;
+            }
+            Color color = figureColors[t];
+            for (int u = t; u < typePainted.length; u++) {
+                if (!typePainted[u] && figureColors[u].equals(color)) {
+                    if (renderers[u] instanceof ShapeRenderer) {
+                        FigureType type = FigureType.ALL[u];
+                        raster.fillFigures(snapshot, type, model.getWidth(type), model.getHeight(type),
+                                color.getRGB(), width, height);
+                    }
+                    typePainted[u] = true;
+                }
+            }
+        }
+        raster.present(g);
+        drawnCopies += raster.getDrawnCopies();
+        culledCopies += raster.getCulledCopies();
+        for (int t = 0; t < renderers.length; t++) {
+            if (renderers[t] != null && !(renderers[t] instanceof ShapeRenderer)) {
+                g.setColor(figureColors[t]);
+                paintFigures(g, snapshot, FigureType.ALL[t], figureColors[t], width, height);
+            }
+        }
+    }
+
+    /**
+     * Paints the 8 different copies of every figure of one type, except
+     * the copies that are outside the clip. Culling a copy takes four
+     * comparisons, while painting it, even entirely off-screen, goes
+     * all the way through Java2D.
+     *
+     * @param g The Graphics on which to paint things.
+     * @param snapshot The figures to be painted (and reflected)
+     * @param type The type of figure to paint
+     * @param color The color of figures of this type
+     * @param width The width of the display
+     * @param height The height of the display
+     */
+    private void paintFigures(Graphics g, Snapshot snapshot, FigureType type, Color color, int width, int height) {
+        FigureRenderer renderer = renderers[type.ordinal()];
+        if (renderer == null) {
+            return;
+        }
+        byte code = type.code();
+        int w = model.getWidth(type);
+        int h = model.getHeight(type);
+        byte[] types = snapshot.type;
+        int x0 = clipX0;
+        int y0 = clipY0;
+        int x1 = clipX1;
+        int y1 = clipY1;
+        int drawn = 0;
+        int culled = 0;
+        for (int i = 0; i < snapshot.count; i++) {
+            if (types[i] != code) {
+                continue;
+            }
+            int x = snapshot.xPosition[i];
+            int y = snapshot.yPosition[i];
+            for (int copy = 0; copy < Reflection.COPIES; copy++) {
+                Orientation orientation = Reflection.orientation(copy);
+                int copyX = Reflection.x(copy, x, y, w, h, width, height);
+                int copyY = Reflection.y(copy, x, y, w, h, width, height);
+                int copyWidth = orientation.isSideways() ? h : w;
+                int copyHeight = orientation.isSideways() ? w : h;
+                if (copyX >= x1 || copyY >= y1 || copyX + copyWidth <= x0 || copyY + copyHeight <= y0) {
+                    culled++;
+                    continue;
+                }
+                renderer.paint(g, copyX, copyY, orientation, color);
+                drawn++;
+            }
+        }
+        drawnCopies += drawn;
+        culledCopies += culled;
+    }
+
+    /**
+     * The renderer for the built-in shapes. Each copy is drawn as a blit
+     * from the sprite cache if it is enabled, and filled with Java2D if not.
+     */
+    private abstract class ShapeRenderer implements FigureRenderer {
+        private final FigureType type;
+
+        ShapeRenderer(FigureType type) {
+            this.type = type;
+        }
+
+        @Override
+        public void paint(Graphics g, int x, int y, Orientation orientation, Color color) {
+            if (spritesEnabled) {
+                g.drawImage(getSprite(this, orientation, color), x, y, null);
+            }
+            else {
+                fill(g, x, y, orientation);
+            }
+        }
+
+        /**
+         * Returns the orientation whose sprite looks the same as a copy
+         * in the given orientation, so that identical sprites are shared
+         * @param orientation The orientation of a copy
+         * @return The orientation to key its sprite by
+         */
+        Orientation spriteOrientation(Orientation orientation) {
+            return orientation;
+        }
+
+        /**
+         * Fills one copy of the shape with Java2D
+         * @param g The Graphics on which to paint things.
+         * @param x The x position of the copy
+         * @param y The y position of the copy
+         * @param orientation The way the copy faces
+         */
+        abstract void fill(Graphics g, int x, int y, Orientation orientation);
+    }
+
+    /**
+     * Paints balls
+     */
+    private class BallRenderer extends ShapeRenderer {
+        BallRenderer() {
+            super(FigureType.BALL);
+        }
+
+        @Override
+        Orientation spriteOrientation(Orientation orientation) {
+            return Orientation.UP;
+        }
+
+        @Override
+        void fill(Graphics g, int x, int y, Orientation orientation) {
+            g.fillOval(x, y, model.BALL_SIZE, model.BALL_SIZE);
+        }
+    }
+
+    /**
+     * Paints rectangles, transposed when they are sideways
+     */
+    private class RectangleRenderer extends ShapeRenderer {
+        RectangleRenderer() {
+            super(FigureType.RECT);
+        }
+
+        @Override
+        Orientation spriteOrientation(Orientation orientation) {
+            return orientation.isSideways() ? Orientation.LEFT : Orientation.UP;
+        }
+
+        @Override
+        void fill(Graphics g, int x, int y, Orientation orientation) {
+            if (orientation.isSideways()) {
+                g.fillRect(x, y, model.RECT_HEIGHT, model.RECT_WIDTH);
+            }
+            else {
+                g.fillRect(x, y, model.RECT_WIDTH, model.RECT_HEIGHT);
+            }
+        }
+    }
+
+    /**
+     * Paints triangles pointing in the direction of their orientation
+     */
+    private class TriangleRenderer extends ShapeRenderer {
+        TriangleRenderer() {
+            super(FigureType.TRI);
+        }
+
+        @Override
+        void fill(Graphics g, int x, int y, Orientation orientation) {
+            fillTriangle(g, x, y, orientation);
+        }
+    }
+
+    /**
+     * Paints a triangle directly with fillPolygon, by offsetting the
+     * precomputed vertex template for its orientation. The vertices
+     * go in scratch arrays, so this allocates nothing.
+     *
+     * @param g The Graphics on which to paint things.
+     * @param x The x position of the triangle
+     * @param y The y position of the triangle
+     * @param orientation The direction that the triangle is pointing
+     */
+    private void fillTriangle(Graphics g, int x, int y, Orientation orientation) {
+        int[] xTemplate = triXTemplates[orientation.ordinal()];
+        int[] yTemplate = triYTemplates[orientation.ordinal()];
+        for (int i = 0; i < 3; i++) {
+            triXCoords[i] = x + xTemplate[i];
+            triYCoords[i] = y + yTemplate[i];
+        }
+        g.fillPolygon(triXCoords, triYCoords, 3);
+    }
+
+    /**
+     * Returns the sprite for one orientation of a shape, rendering
+     * it and putting it in the sprite cache if it isn't there already.
+     *
+     * @param shape The renderer of the shape
+     * @param orientation The orientation of the shape
+     * @param color The color of the shape
+     * @return An image of the shape with a transparent background
+     */
+    private BufferedImage getSprite(ShapeRenderer shape, Orientation orientation, Color color) {
+        orientation = shape.spriteOrientation(orientation);
+        int width = model.getWidth(shape.type);
+        int height = model.getHeight(shape.type);
+        if (orientation.isSideways()) {
+            int swap = width;
+            width = height;
+            height = swap;
+        }
+        BufferedImage sprite = sprites.get(shape.type, orientation, color, width, height);
+        if (sprite != null) {
+            return sprite;
+        }
+        GraphicsConfiguration gc = graphicsConfiguration;
+        if (gc != null) {
+            sprite = gc.createCompatibleImage(width, height, Transparency.BITMASK);
+        }
+        else {
+            sprite = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+        Graphics g = sprite.createGraphics();
+        g.setColor(color);
+        shape.fill(g, 0, 0, orientation);
+        g.dispose();
+        sprites.put(shape.type, orientation, color, sprite);
+        return sprite;
+    }
+
+    /**
+     * Calculates the x & y coordinates of the
+     * vertices of an upwards pointing triangle
+     *
+     * @param x The x position of the triangle.
+     * @param y The y position of the triangle.
+     * @param xCoords An array of size 3 that is loaded
+     * with the x coordinates of the triangle's vertices
+     * @param yCoords An array of size 3 that is loaded
+     * with the y coordinates of the triangle's vertices
+     */
+    private void getUpCoords(int x, int y, int[] xCoords, int[] yCoords) {
+        xCoords[0] = x;
+        xCoords[1] = x + model.TRI_WIDTH / 2;
+        xCoords[2] = x + model.TRI_WIDTH;
+        yCoords[0] = y + model.TRI_HEIGHT;
+        yCoords[1] = y;
+        yCoords[2] = y + model.TRI_HEIGHT;
+    }
+
+    /**
+     * Calculates the x & y coordinates of the
+     * vertices of a downwards pointing triangle
+     *
+     * @param x The x position of the triangle.
+     * @param y The y position of the triangle.
+     * @param xCoords An array of size 3 that is loaded
+     * with the x coordinates of the triangle's vertices
+     * @param yCoords An array of size 3 that is loaded
+     * with the y coordinates of the triangle's vertices
+     */
+    private void getDownCoords(int x, int y, int[] xCoords, int[] yCoords) {
+        xCoords[0] = x;
+        xCoords[1] = x + model.TRI_WIDTH;
+        xCoords[2] = x + model.TRI_WIDTH / 2;
+        yCoords[0] = y;
+        yCoords[1] = y;
+        yCoords[2] = y + model.TRI_HEIGHT;
+    }
+
+    /**
+     * Calculates the x & y coordinates of the
+     * vertices of a leftwards pointing triangle
+     *
+     * @param x The x position of the triangle.
+     * @param y The y position of the triangle.
+     * @param xCoords An array of size 3 that is loaded
+     * with the x coordinates of the triangle's vertices
+     * @param yCoords An array of size 3 that is loaded
+     * with the y coordinates of the triangle's vertices
+     */
+    private void getLeftCoords(int x, int y, int[] xCoords, int[] yCoords) {
+        xCoords[0] = x;
+        xCoords[1] = x + model.TRI_HEIGHT;
+        xCoords[2] = x + model.TRI_HEIGHT;
+        yCoords[0] = y + model.TRI_WIDTH / 2;
+        yCoords[1] = y;
+        yCoords[2] = y + model.TRI_WIDTH;
+    }
+
+    /**
+     * Calculates the x & y coordinates of the
+     * vertices of a rightwards pointing triangle
+     *
+     * @param x The x position of the triangle.
+     * @param y The y position of the triangle.
+     * @param xCoords An array of size 3 that is loaded
+     * with the x coordinates of the triangle's vertices
+     * @param yCoords An array of size 3 that is loaded
+     * with the y coordinates of the triangle's vertices
+     */
+    private void getRightCoords(int x, int y, int[] xCoords, int[] yCoords) {
+        xCoords[0] = x;
+        xCoords[1] = x + model.TRI_HEIGHT;
+        xCoords[2] = x;
+        yCoords[0] = y;
+        yCoords[1] = y + model.TRI_WIDTH / 2;
+        yCoords[2] = y + model.TRI_WIDTH;
+    }
+}
@@ -0,0 +1,71 @@
+package kaleidoscope;
+
+import java.util.Random;
+
+/**
+ * A Random whose state can be read and restored, so that a Checkpoint
+ * can carry on the same sequence of numbers. It uses the same linear
+ * congruential generator as java.util.Random, which keeps its state
+ * private, so a SeededRandom gives exactly the numbers a Random with
+ * the same seed would.
+ */
+@SuppressWarnings("serial")
+final class SeededRandom extends Random {
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+    /** Set by setSeed, which Random's constructors call before this class's fields are initialized. */
+    private long state;
+
+    /**
+     * Constructor for a generator with a seed that is different every time
+     */
+    SeededRandom() {
+        super();
+    }
+
+    /**
+     * Constructor
+     * @param seed The seed, as given to java.util.Random
+     */
+    SeededRandom(long seed) {
+        super(seed);
+    }
+
+    /**
+     * Sets the seed, as java.util.Random does
+     * @param seed The seed
+     */
+    @Override
+    public synchronized void setSeed(long seed) {
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    /**
+     * Advances the generator and returns its top bits
+     * @param bits The number of bits to return
+     * @return The next random bits
+     */
+    @Override
+    protected synchronized int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+
+    /**
+     * Returns the generator's internal state, which is not the seed it
+     * was given
+     * @return The state, for setState
+     */
+    synchronized long getState() {
+        return state;
+    }
+
+    /**
+     * Puts the generator back into a state returned by getState
+     * @param state The state
+     */
+    synchronized void setState(long state) {
+        this.state = state & MASK;
+    }
+}
@@ -0,0 +1,17 @@
+package kaleidoscope;
+
+/**
+ * Steps all of the figures in one loop on the calling thread.
+ */
+class SerialStepEngine implements StepEngine {
+
+    @Override
+    public void step(FigureStore store, int count) {
+        store.step(0, count);
+    }
+
+    @Override
+    public void step(FigureStore store, int from, int to) {
+        store.step(from, to);
+    }
+}
@@ -0,0 +1,148 @@
+package kaleidoscope;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the simulation at a fixed timestep on one dedicated thread.
+ * Elapsed real time (from System.nanoTime) is added to an accumulator,
+ * and one step is run for every whole period in it, so late ticks are
+ * caught up rather than lost and the rate does not drift. At most
+ * maxCatchUpSteps steps are run per wake-up; time beyond that is
+ * dropped, so an overloaded simulation slows down instead of falling
+ * further and further behind.
+ * <p>
+ * Pausing and resuming reuse the same thread, which is only started
+ * the first time the clock is resumed.
+ */
+class SimulationClock {
+    /** Default number of steps that may be run to catch up at once. */
+    static final int DEFAULT_MAX_CATCH_UP_STEPS = 5;
+    private final Runnable step;
+    private final long periodNanos;
+    private final Metrics metrics;
+    private volatile int maxCatchUpSteps = DEFAULT_MAX_CATCH_UP_STEPS;
+    private volatile boolean running;
+    private volatile double alpha;
+    private volatile long droppedSteps;
+    private Thread thread;
+
+    /**
+     * Constructor
+     * @param step What to run once per period
+     * @param periodMillis The length of one step, in milliseconds
+     * @param metrics Where to record dropped steps
+     */
+    SimulationClock(Runnable step, long periodMillis, Metrics metrics) {
+        this.step = step;
+        this.periodNanos = periodMillis * 1000000L;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts (or restarts) running steps, starting the clock thread if
+     * this is the first time.
+     */
+    synchronized void resume() {
+        running = true;
+        if (thread == null) {
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop();
+                }
+            }, "kaleidoscope-simulation");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        else {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Stops running steps. The clock thread stays alive, parked, until
+     * the clock is resumed.
+     */
+    void pause() {
+        running = false;
+    }
+
+    /**
+     * Tells whether the clock is running steps
+     * @return true if running, false if paused
+     */
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Sets how many steps may be run back to back to catch up after the
+     * clock thread was delayed
+     * @param steps The maximum number of steps per wake-up (at least 1)
+     */
+    void setMaxCatchUpSteps(int steps) {
+        if (steps < 1) {
+            throw new IllegalArgumentException("steps must be positive: " + steps);
+        }
+        maxCatchUpSteps = steps;
+    }
+
+    /**
+     * Returns how far the clock is between the last step and the next,
+     * so that a renderer can interpolate between states.
+     * @return The leftover fraction of a period, from 0 (inclusive) to 1
+     */
+    double getInterpolationAlpha() {
+        return alpha;
+    }
+
+    /**
+     * Returns the number of steps skipped because the clock fell more
+     * than maxCatchUpSteps behind.
+     * @return The number of dropped steps since the clock was created
+     */
+    long getDroppedSteps() {
+        return droppedSteps;
+    }
+
+    /**
+     * The body of the clock thread.
+     */
+    private void loop() {
+        long previous = 0;
+        long accumulator = 0;
+        boolean wasRunning = false;
+        while (true) {
+            if (!running) {
+                wasRunning = false;
+                LockSupport.park(this);
+                continue;
+            }
+            long now = System.nanoTime();
+            if (!wasRunning) {
+                // Step at once on (re)start, as the old Timer did
+                wasRunning = true;
+                accumulator = periodNanos;
+            }
+            else {
+                accumulator += now - previous;
+            }
+            previous = now;
+            int steps = 0;
+            int maxSteps = maxCatchUpSteps;
+            while (accumulator >= periodNanos && steps < maxSteps && running) {
+                step.run();
+                accumulator -= periodNanos;
+                steps++;
+            }
+            if (accumulator >= periodNanos) {
+                long dropped = accumulator / periodNanos;
+                droppedSteps += dropped;
+                metrics.recordDroppedTicks(dropped);
+                accumulator %= periodNanos;
+            }
+            alpha = (double) accumulator / periodNanos;
+            LockSupport.parkNanos(this, periodNanos - accumulator);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package kaleidoscope;
+
+/**
+ * A copy of the positions and types of all the figures at the end of
+ * one tick, for drawing. Snapshots are recycled by a SnapshotBuffer:
+ * copying into one only allocates when the number of figures has grown
+ * beyond anything it has held before.
+ */
+final class Snapshot {
+    /** The tick at which the copy was taken. */
+    long tick;
+    /** The number of figures in the copy. */
+    int count;
+    int[] xPosition = new int[0];
+    int[] yPosition = new int[0];
+    byte[] type = new byte[0];
+    /** What changed on the display since the previous snapshot the reader took. */
+    final Damage damage = new Damage();
+
+    /**
+     * Copies the first count figures out of a store
+     * @param store The store to copy from
+     * @param count The number of figures to copy
+     * @param tick The tick the store is at
+     */
+    void copyFrom(FigureStore store, int count, long tick) {
+        ensureCapacity(count);
+        System.arraycopy(store.xPosition, 0, xPosition, 0, count);
+        System.arraycopy(store.yPosition, 0, yPosition, 0, count);
+        System.arraycopy(store.type, 0, type, 0, count);
+        this.count = count;
+        this.tick = tick;
+    }
+
+    /**
+     * Makes sure the arrays can hold at least count figures
+     * @param capacity The number of figures needed
+     */
+    void ensureCapacity(int capacity) {
+        if (xPosition.length < capacity) {
+            xPosition = new int[capacity];
+            yPosition = new int[capacity];
+            type = new byte[capacity];
+        }
+    }
+}
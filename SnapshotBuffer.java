@@ -0,0 +1,74 @@
+package kaleidoscope;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Passes Snapshots from the simulation thread to a rendering thread
+ * without either of them ever waiting for the other. There are three
+ * snapshots: the writer fills its "back" one, the reader draws from its
+ * "front" one, and the third sits in the middle holding the latest
+ * published state. Publishing and acquiring are each a single atomic
+ * swap with the middle, so the snapshots are recycled forever and the
+ * reader always sees a complete tick.
+ * <p>
+ * There must be only one reader. Writers must not publish concurrently
+ * with each other.
+ */
+final class SnapshotBuffer {
+    private static final int INDEX_MASK = 3;
+    /** Set in middle when it holds a snapshot the reader hasn't taken. */
+    private static final int FRESH = 4;
+    private final Snapshot[] snapshots = {new Snapshot(), new Snapshot(), new Snapshot()};
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;
+    private int front = 2;
+    /** The writer's record of which snapshot it published last. */
+    private int published = 1;
+
+    /**
+     * Returns the snapshot the writer should fill before publishing
+     * @return The writer's back snapshot
+     */
+    Snapshot getBackSnapshot() {
+        return snapshots[back];
+    }
+
+    /**
+     * Makes the back snapshot the latest one, and takes a new back
+     * snapshot in its place.
+     */
+    void publish() {
+        published = back;
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Returns the latest published snapshot as seen by the writer. The
+     * writer may read it, but the reader may be using it too.
+     * @return The most recently published snapshot
+     */
+    Snapshot getPublishedSnapshot() {
+        return snapshots[published];
+    }
+
+    /**
+     * Tells whether the latest published snapshot has not yet been
+     * taken by the reader
+     * @return true if the reader hasn't acquired it
+     */
+    boolean isPending() {
+        return (middle.get() & FRESH) != 0;
+    }
+
+    /**
+     * Returns the latest published snapshot. The reader may use it
+     * until its next call to acquire.
+     * @return The most recently published snapshot
+     */
+    Snapshot acquire() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX_MASK;
+        }
+        return snapshots[front];
+    }
+}
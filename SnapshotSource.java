@@ -0,0 +1,16 @@
+package kaleidoscope;
+
+/**
+ * Something a View can take Snapshots of the figures from: normally a
+ * running Model, but it may be a Replayer playing back a recording.
+ */
+interface SnapshotSource {
+
+    /**
+     * Returns the latest state of the figures. Only one thread (normally
+     * the event dispatch thread) may call this, and the snapshot is only
+     * valid until its next call.
+     * @return A snapshot of the figures
+     */
+    Snapshot acquireSnapshot();
+}
@@ -0,0 +1,374 @@
+package kaleidoscope;
+
+import java.util.Arrays;
+
+/**
+ * Finds and bounces the figures that touch each other. Testing every
+ * pair of figures would take time proportional to the square of their
+ * number, so the figures are first put in a uniform grid of square
+ * cells, and only figures that share a cell are compared.
+ * <p>
+ * The grid is hashed into a table of about as many buckets as there
+ * are figures, so its size does not depend on the size of the display.
+ * It is rebuilt every tick with a counting sort: one pass counts the
+ * figures whose bounding boxes overlap each bucket, and a second puts
+ * them in one flat array. The cells are at least as big as the largest
+ * figure, so each figure is in at most 4 cells.
+ * <p>
+ * The figures are compared a bucket at a time. A pair of figures may
+ * share more than one bucket, but it is only tested in the bucket of
+ * the cell that holds the top left corner of the overlap of their
+ * bounding boxes, so each pair is tested once. Pairs whose bounding
+ * boxes overlap are the candidate pairs, and each is then tested with
+ * the figures' real shapes: balls are circles, and rectangles and
+ * triangles are convex polygons. Two figures that touch are bounced
+ * apart along the axis on which their bounding boxes overlap least.
+ * <p>
+ * The time taken grows with the number of figures plus the number of
+ * candidate pairs. While the figures are spread out, that is close to
+ * linear; if they are all crowded into a small display, most pairs are
+ * candidates, and nothing can make it better than quadratic.
+ */
+final class SpatialGrid {
+    /** The hash multipliers of the x and y cell coordinates. */
+    private static final int X_PRIME = 73856093;
+    private static final int Y_PRIME = 19349663;
+    /** Mixes every bit of a hash into its top bits, which pick the bucket. */
+    private static final int MIX = 0x9E3779B9;
+    /** The layout of an entry: a figure, its type code, then its bounding box as half-open ranges. */
+    private static final int FIGURE = 0;
+    private static final int TYPE = 1;
+    private static final int LEFT = 2;
+    private static final int TOP = 3;
+    private static final int RIGHT = 4;
+    private static final int BOTTOM = 5;
+    private static final int ENTRY_SIZE = 6;
+    /** The smallest number of buckets. */
+    private static final int MIN_BUCKETS = 64;
+    /** The cells are 1 << cellShift pixels square. */
+    private int cellShift;
+    /** How far a mixed hash is shifted down to give a bucket. */
+    private int bucketShift;
+    /** Where each bucket's entries start; bucket b ends where b + 1 starts. */
+    private int[] bucketStarts = new int[MIN_BUCKETS + 1];
+    /**
+     * The entries of each bucket, bucket after bucket. Each entry holds
+     * a figure's index, type and bounding box side by side, so that the
+     * figures in a bucket are compared without reading the store out of
+     * order, and filling an entry touches one cache line.
+     */
+    private int[] entries = new int[0];
+    /** The distinct buckets of one figure's cells, from bucketsOf. */
+    private final int[] figureBuckets = new int[4];
+    /** Scratch space for the corners of the polygons being tested. */
+    private final double[] xs1 = new double[4];
+    private final double[] ys1 = new double[4];
+    private final double[] xs2 = new double[4];
+    private final double[] ys2 = new double[4];
+    /** What the last call to collide found. */
+    private int candidatePairs;
+    private int contacts;
+
+    /**
+     * Finds every pair of figures that touch, and bounces them apart
+     * by changing their directions
+     * @param store The store holding the figures
+     * @param count The number of figures
+     */
+    void collide(FigureStore store, int count) {
+        candidatePairs = 0;
+        contacts = 0;
+        if (count < 2) {
+            return;
+        }
+        build(store, count);
+        int buckets = bucketStarts.length - 1;
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            int end = bucketStarts[bucket + 1];
+            for (int k1 = bucketStarts[bucket]; k1 < end; k1++) {
+                for (int k2 = k1 + 1; k2 < end; k2++) {
+                    int e1 = k1 * ENTRY_SIZE;
+                    int e2 = k2 * ENTRY_SIZE;
+                    int left = Math.max(entries[e1 + LEFT], entries[e2 + LEFT]);
+                    int top = Math.max(entries[e1 + TOP], entries[e2 + TOP]);
+                    int right = Math.min(entries[e1 + RIGHT], entries[e2 + RIGHT]);
+                    int bottom = Math.min(entries[e1 + BOTTOM], entries[e2 + BOTTOM]);
+                    if (left >= right || top >= bottom
+                            || bucketOf(left >> cellShift, top >> cellShift) != bucket) {
+                        continue;
+                    }
+                    candidatePairs++;
+                    if (touch(e1, e2)) {
+                        contacts++;
+                        bounce(store, e1, e2, right - left, bottom - top);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of pairs of figures whose bounding boxes
+     * overlapped in the last call to collide
+     * @return The number of candidate pairs
+     */
+    int getCandidatePairs() {
+        return candidatePairs;
+    }
+
+    /**
+     * Returns the number of pairs of figures that touched in the last
+     * call to collide
+     * @return The number of pairs bounced apart
+     */
+    int getContacts() {
+        return contacts;
+    }
+
+    /**
+     * Puts every figure in the bucket of each cell its bounding box
+     * overlaps, along with a copy of the box, so that the figures in a
+     * bucket can be compared without reading the store out of order
+     * @param store The store holding the figures
+     * @param count The number of figures
+     */
+    private void build(FigureStore store, int count) {
+        int[] x = store.xPosition;
+        int[] y = store.yPosition;
+        int[] w = store.width;
+        int[] h = store.height;
+        int largest = 1;
+        for (int i = 0; i < count; i++) {
+            largest = Math.max(largest, Math.max(w[i], h[i]));
+        }
+        cellShift = 32 - Integer.numberOfLeadingZeros(largest - 1);
+        int buckets = Math.max(MIN_BUCKETS, Integer.highestOneBit(count - 1) << 1);
+        if (bucketStarts.length != buckets + 1) {
+            bucketStarts = new int[buckets + 1];
+        }
+        else {
+            Arrays.fill(bucketStarts, 0);
+        }
+        bucketShift = Integer.numberOfLeadingZeros(buckets) + 1;
+        // Count each bucket's figures in the slot after it, then sum them into starts
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            int n = bucketsOf(x[i], y[i], w[i], h[i]);
+            for (int k = 0; k < n; k++) {
+                bucketStarts[figureBuckets[k] + 1]++;
+            }
+            total += n;
+        }
+        for (int b = 0; b < buckets; b++) {
+            bucketStarts[b + 1] += bucketStarts[b];
+        }
+        if (entries.length < total * ENTRY_SIZE) {
+            entries = new int[(total + total / 4) * ENTRY_SIZE];
+        }
+        // Fill each bucket from the back, leaving bucketStarts as the starts
+        for (int i = count - 1; i >= 0; i--) {
+            int n = bucketsOf(x[i], y[i], w[i], h[i]);
+            for (int k = 0; k < n; k++) {
+                int entry = --bucketStarts[figureBuckets[k] + 1] * ENTRY_SIZE;
+                entries[entry + FIGURE] = i;
+                entries[entry + TYPE] = store.type[i];
+                entries[entry + LEFT] = x[i];
+                entries[entry + TOP] = y[i];
+                entries[entry + RIGHT] = x[i] + w[i];
+                entries[entry + BOTTOM] = y[i] + h[i];
+            }
+        }
+        // Each slot now holds the start of the bucket before it
+        System.arraycopy(bucketStarts, 1, bucketStarts, 0, buckets);
+        bucketStarts[buckets] = total;
+    }
+
+    /**
+     * Works out the buckets of the cells that a bounding box overlaps.
+     * Two of the cells may hash to the same bucket, and it is only
+     * listed once, so that no figure is in a bucket twice.
+     * @param x The left of the box
+     * @param y The top of the box
+     * @param w The width of the box
+     * @param h The height of the box
+     * @return The number of buckets put in figureBuckets
+     */
+    private int bucketsOf(int x, int y, int w, int h) {
+        int n = 0;
+        int cellX1 = (x + w - 1) >> cellShift;
+        int cellY1 = (y + h - 1) >> cellShift;
+        for (int cellY = y >> cellShift; cellY <= cellY1; cellY++) {
+            for (int cellX = x >> cellShift; cellX <= cellX1; cellX++) {
+                int bucket = bucketOf(cellX, cellY);
+                int k = 0;
+                while (k < n && figureBuckets[k] != bucket) {
+                    k++;
+                }
+                if (k == n) {
+                    figureBuckets[n++] = bucket;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the bucket that a cell is hashed to
+     * @param cellX The x coordinate of the cell
+     * @param cellY The y coordinate of the cell
+     * @return The index of the bucket
+     */
+    private int bucketOf(int cellX, int cellY) {
+        return ((cellX * X_PRIME) ^ (cellY * Y_PRIME)) * MIX >>> bucketShift;
+    }
+
+    /**
+     * Tests whether two figures whose bounding boxes overlap really touch
+     * @param e1 Where the entry of one figure starts in entries
+     * @param e2 Where the entry of the other figure starts
+     * @return true if the figures' shapes overlap
+     */
+    private boolean touch(int e1, int e2) {
+        int type1 = entries[e1 + TYPE];
+        int type2 = entries[e2 + TYPE];
+        int ball = FigureType.BALL.code();
+        if (type1 == FigureType.RECT.code() && type2 == FigureType.RECT.code()) {
+            return true;
+        }
+        if (type1 == ball && type2 == ball) {
+            double radius1 = (entries[e1 + RIGHT] - entries[e1 + LEFT]) / 2.0;
+            double radius2 = (entries[e2 + RIGHT] - entries[e2 + LEFT]) / 2.0;
+            double dx = entries[e1 + LEFT] + radius1 - entries[e2 + LEFT] - radius2;
+            double dy = entries[e1 + TOP] + radius1 - entries[e2 + TOP] - radius2;
+            return dx * dx + dy * dy < (radius1 + radius2) * (radius1 + radius2);
+        }
+        if (type1 == ball || type2 == ball) {
+            int circle = type1 == ball ? e1 : e2;
+            int corners = corners(circle == e1 ? e2 : e1, xs1, ys1);
+            double radius = (entries[circle + RIGHT] - entries[circle + LEFT]) / 2.0;
+            return circleTouchesPolygon(entries[circle + LEFT] + radius, entries[circle + TOP] + radius, radius,
+                    xs1, ys1, corners);
+        }
+        int corners1 = corners(e1, xs1, ys1);
+        int corners2 = corners(e2, xs2, ys2);
+        return !separated(xs1, ys1, corners1, xs2, ys2, corners2)
+                && !separated(xs2, ys2, corners2, xs1, ys1, corners1);
+    }
+
+    /**
+     * Works out the corners of a rectangle or triangle, in clockwise
+     * order on the display. Triangles point up, as the primary copy
+     * is drawn.
+     * @param e Where the figure's entry starts in entries
+     * @param xs Loaded with the x coordinates of the corners
+     * @param ys Loaded with the y coordinates of the corners
+     * @return The number of corners
+     */
+    private int corners(int e, double[] xs, double[] ys) {
+        int left = entries[e + LEFT];
+        int top = entries[e + TOP];
+        int right = entries[e + RIGHT];
+        int bottom = entries[e + BOTTOM];
+        if (entries[e + TYPE] == FigureType.TRI.code()) {
+            xs[0] = left;
+            ys[0] = bottom;
+            xs[1] = left + (right - left) / 2;
+            ys[1] = top;
+            xs[2] = right;
+            ys[2] = bottom;
+            return 3;
+        }
+        xs[0] = left;
+        ys[0] = top;
+        xs[1] = right;
+        ys[1] = top;
+        xs[2] = right;
+        ys[2] = bottom;
+        xs[3] = left;
+        ys[3] = bottom;
+        return 4;
+    }
+
+    /**
+     * Tests whether one of the edges of the first polygon separates it
+     * from the second polygon. Two convex polygons touch unless an edge
+     * of one of them separates them.
+     * @return true if the polygons are separated by an edge of the first
+     */
+    private static boolean separated(double[] xs1, double[] ys1, int n1, double[] xs2, double[] ys2, int n2) {
+        for (int k = 0; k < n1; k++) {
+            int next = (k + 1) % n1;
+            // The outward normal of a clockwise edge, on the display
+            double nx = ys1[next] - ys1[k];
+            double ny = xs1[k] - xs1[next];
+            double edge = nx * xs1[k] + ny * ys1[k];
+            double nearest = Double.MAX_VALUE;
+            for (int m = 0; m < n2; m++) {
+                nearest = Math.min(nearest, nx * xs2[m] + ny * ys2[m]);
+            }
+            if (nearest >= edge) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests whether a circle overlaps a convex polygon: either its
+     * center is inside the polygon, or it is closer than its radius
+     * to one of the polygon's edges
+     * @param cx The x coordinate of the circle's center
+     * @param cy The y coordinate of the circle's center
+     * @param radius The radius of the circle
+     * @param xs The x coordinates of the polygon's corners, clockwise
+     * @param ys The y coordinates of the polygon's corners
+     * @param n The number of corners
+     * @return true if they overlap
+     */
+    private static boolean circleTouchesPolygon(double cx, double cy, double radius, double[] xs, double[] ys, int n) {
+        boolean inside = true;
+        for (int k = 0; k < n; k++) {
+            int next = (k + 1) % n;
+            double ex = xs[next] - xs[k];
+            double ey = ys[next] - ys[k];
+            double px = cx - xs[k];
+            double py = cy - ys[k];
+            if (ex * py - ey * px < 0) {
+                inside = false;
+            }
+            double t = Math.max(0, Math.min(1, (px * ex + py * ey) / (ex * ex + ey * ey)));
+            double dx = px - t * ex;
+            double dy = py - t * ey;
+            if (dx * dx + dy * dy < radius * radius) {
+                return true;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Bounces two touching figures apart along the axis on which their
+     * bounding boxes overlap least: the one nearer the left (or top)
+     * is sent left (or up), and the other right (or down). Their
+     * speeds are kept, so each keeps the same velocity or its reverse.
+     * @param store The store holding the figures
+     * @param e1 Where the entry of one figure starts in entries
+     * @param e2 Where the entry of the other figure starts
+     * @param overlapWidth The width of the overlap of their bounding boxes
+     * @param overlapHeight The height of the overlap of their bounding boxes
+     */
+    private void bounce(FigureStore store, int e1, int e2, int overlapWidth, int overlapHeight) {
+        int i = entries[e1 + FIGURE];
+        int j = entries[e2 + FIGURE];
+        if (overlapWidth <= overlapHeight) {
+            boolean iFirst = entries[e1 + LEFT] + entries[e1 + RIGHT] <= entries[e2 + LEFT] + entries[e2 + RIGHT];
+            store.xDelta[i] = iFirst ? -Math.abs(store.xDelta[i]) : Math.abs(store.xDelta[i]);
+            store.xDelta[j] = iFirst ? Math.abs(store.xDelta[j]) : -Math.abs(store.xDelta[j]);
+        }
+        else {
+            boolean iFirst = entries[e1 + TOP] + entries[e1 + BOTTOM] <= entries[e2 + TOP] + entries[e2 + BOTTOM];
+            store.yDelta[i] = iFirst ? -Math.abs(store.yDelta[i]) : Math.abs(store.yDelta[i]);
+            store.yDelta[j] = iFirst ? Math.abs(store.yDelta[j]) : -Math.abs(store.yDelta[j]);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package kaleidoscope;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+/**
+ * Holds pre-rendered images ("sprites") of each figure type in each
+ * orientation, so that a copy of a figure can be drawn with one
+ * drawImage instead of a fillOval or fillPolygon. A sprite is keyed by
+ * figure type, orientation and color, and is only used if it also has
+ * the size being asked for; otherwise the lookup is a miss and the
+ * caller should render and put a new one.
+ * <p>
+ * The cache is meant to be used from one thread (the one painting).
+ */
+final class SpriteCache {
+    private static final int ORIENTATIONS = Orientation.ALL.length;
+    private final BufferedImage[] sprites = new BufferedImage[FigureType.ALL.length * ORIENTATIONS];
+    private final Color[] colors = new Color[sprites.length];
+    private volatile long hits;
+    private volatile long misses;
+
+    /**
+     * Looks up a sprite
+     * @param type The figure type
+     * @param orientation The orientation of the figure
+     * @param color The color the sprite must be drawn in
+     * @param width The width the sprite must have
+     * @param height The height the sprite must have
+     * @return The sprite, or null if there isn't a matching one
+     */
+    BufferedImage get(FigureType type, Orientation orientation, Color color, int width, int height) {
+        int slot = type.ordinal() * ORIENTATIONS + orientation.ordinal();
+        BufferedImage sprite = sprites[slot];
+        if (sprite != null && colors[slot].equals(color)
+                && sprite.getWidth() == width && sprite.getHeight() == height) {
+            hits++;
+            return sprite;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Stores a sprite, replacing any other for the same type and orientation
+     * @param type The figure type
+     * @param orientation The orientation of the figure
+     * @param color The color the sprite is drawn in
+     * @param sprite The rendered sprite
+     */
+    void put(FigureType type, Orientation orientation, Color color, BufferedImage sprite) {
+        int slot = type.ordinal() * ORIENTATIONS + orientation.ordinal();
+        sprites[slot] = sprite;
+        colors[slot] = color;
+    }
+
+    /**
+     * Throws away every sprite, for example when a color has changed.
+     */
+    void invalidate() {
+        for (int i = 0; i < sprites.length; i++) {
+            sprites[i] = null;
+            colors[i] = null;
+        }
+    }
+
+    /**
+     * Returns the number of lookups that found a usable sprite
+     * @return The number of hits
+     */
+    long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that did not find a usable sprite
+     * @return The number of misses
+     */
+    long getMisses() {
+        return misses;
+    }
+}
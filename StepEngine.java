@@ -0,0 +1,26 @@
+package kaleidoscope;
+
+/**
+ * A StepEngine advances every figure in a FigureStore by one step.
+ * Engines differ only in how they divide up the work; all of them must
+ * leave the store in exactly the state that FigureStore.step would.
+ */
+interface StepEngine {
+
+    /**
+     * Advances figures 0 (inclusive) to count (exclusive) one step.
+     * @param store The store holding the figures
+     * @param count The number of figures to step
+     */
+    void step(FigureStore store, int count);
+
+    /**
+     * Advances figures from (inclusive) to to (exclusive) one step, for
+     * an engine that hands out ranges of figures to others, such as a
+     * ForkJoinStepEngine stepping one chunk.
+     * @param store The store holding the figures
+     * @param from The index of the first figure to step
+     * @param to One past the index of the last figure to step
+     */
+    void step(FigureStore store, int from, int to);
+}
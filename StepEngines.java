@@ -0,0 +1,77 @@
+package kaleidoscope;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Chooses a StepEngine at run time, from those this JVM can run.
+ */
+final class StepEngines {
+    /** The name of the class that needs the Vector API. */
+    private static final String VECTOR_ENGINE = "kaleidoscope.VectorStepEngine";
+
+    /**
+     * Constructor. There are no instances.
+     */
+    private StepEngines() {
+    }
+
+    /**
+     * Returns the fastest engine for stepping on one thread: a
+     * VectorStepEngine if it was built and the jdk.incubator.vector
+     * module was added to the JVM, and otherwise a SerialStepEngine.
+     * Both give the same results.
+     * @return A new engine
+     */
+    static StepEngine fastest() {
+        StepEngine vector = vector();
+        return vector != null ? vector : new SerialStepEngine();
+    }
+
+    /**
+     * Returns the engine with the given name, as chosen on the command
+     * line with --engine: "serial" for the scalar loop on one thread,
+     * "vector" for the Vector API on one thread, or "fj" to split the
+     * figures into chunks of grainSize and step them on the common
+     * ForkJoinPool, each chunk with the fastest engine for one thread.
+     * @param name The name of the engine
+     * @param grainSize The largest number of figures in a chunk, for "fj"
+     * @return A new engine
+     * @throws IllegalArgumentException If there is no engine of that
+     * name, or it can't run in this JVM
+     */
+    static StepEngine named(String name, int grainSize) {
+        if (name.equals("serial")) {
+            return new SerialStepEngine();
+        }
+        if (name.equals("vector")) {
+            StepEngine vector = vector();
+            if (vector == null) {
+                throw new IllegalArgumentException(
+                        "The vector engine needs to be built, and run with --add-modules jdk.incubator.vector");
+            }
+            return vector;
+        }
+        if (name.equals("fj")) {
+            return new ForkJoinStepEngine(ForkJoinPool.commonPool(), grainSize,
+                    ForkJoinStepEngine.DEFAULT_THRESHOLD, fastest());
+        }
+        throw new IllegalArgumentException("Unknown engine: " + name + " (expected serial, fj or vector)");
+    }
+
+    /**
+     * Makes a VectorStepEngine, if this JVM can run one
+     * @return A new engine, or null if the Vector API or the class isn't there
+     */
+    private static StepEngine vector() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (StepEngine) Class.forName(VECTOR_ENGINE).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                // Not built, so fall back to the scalar engine
+            } catch (LinkageError e) {
+                // Compiled without the module
+            }
+        }
+        return null;
+    }
+}
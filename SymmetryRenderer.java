@@ -0,0 +1,247 @@
+package kaleidoscope;
+
+import java.awt.Graphics;
+import java.util.Arrays;
+
+/**
+ * A RasterRenderer that draws only the primary copy of each figure, and
+ * makes the other 7 by reflecting what it drew. Every pixel of a
+ * kaleidoscope is decided by the pixels it is a reflection of, so
+ * the frame can be built from one layer of primaries.
+ * <p>
+ * The primaries are filled into a layer with one byte per pixel, in
+ * which bit t is set where a figure of type t covers the pixel. That
+ * is an eighth of the filling done by a RasterRenderer. Each frame
+ * pixel then gathers the bits of the 8 layer pixels that are reflected
+ * onto it, using the inverses of the Reflection arithmetic:
+ * <ul>
+ * <li>Copies 0 to 3 are flips of the display, and are the same for
+ * every figure type.</li>
+ * <li>Copies 4 to 7 transpose the layer, offset by the type's width
+ * and height, and so are gathered one type at a time. They read a
+ * transposed copy of the layer, so every read walks along a row.</li>
+ * </ul>
+ * The pixel takes the color of the last type, in paint order, whose bit
+ * it gathered. That is the type the View would have painted last over
+ * it. The cost depends on the area of the clip, not on the number of
+ * figures, so this pays off when figures are many or large.
+ * <p>
+ * The flipped copies are exact mirror images of the primary. Java2D's
+ * ovals and triangles are not exactly symmetric at the pixel level, so
+ * up to about 0.5% of figure pixels, all along edges, differ from
+ * what the other renderers draw.
+ */
+class SymmetryRenderer extends RasterRenderer {
+    /** The figure types in the order they were handed over this frame. */
+    private final int[] typeOrder = new int[FigureType.ALL.length];
+    private int typeCount;
+    /** The color, width and height of each type handed over, by ordinal. */
+    private final int[] typeColors = new int[FigureType.ALL.length];
+    private final int[] typeWidths = new int[FigureType.ALL.length];
+    private final int[] typeHeights = new int[FigureType.ALL.length];
+    /** The color of a pixel, indexed by the type bits gathered for it. */
+    private final int[] colorOfBits = new int[1 << FigureType.ALL.length];
+    private int background;
+    /** The layer of primaries: one byte of type bits per display pixel. */
+    private byte[] layer = new byte[0];
+    /** The layer transposed, with rows of zeros either side of every column. */
+    private byte[] transposed = new byte[0];
+    private int transposedStride;
+    private int transposedOffset;
+    /** The bits gathered for one row of the frame, and for the row reversed. */
+    private byte[] rowBits = new byte[0];
+    private byte[] reversedRowBits = new byte[0];
+    private int layerWidth;
+    private int layerHeight;
+
+    /**
+     * Constructor
+     * @param model The Model whose figure sizes are used
+     * @param triXTemplates The x offsets of the triangle's vertices, by orientation
+     * @param triYTemplates The y offsets of the triangle's vertices, by orientation
+     */
+    SymmetryRenderer(Model model, int[][] triXTemplates, int[][] triYTemplates) {
+        super(model, triXTemplates, triYTemplates);
+    }
+
+    @Override
+    void begin(int width, int height, int clipX, int clipY, int clipWidth, int clipHeight) {
+        super.begin(width, height, clipX, clipY, clipWidth, clipHeight);
+        layerWidth = Math.max(width, 1);
+        layerHeight = Math.max(height, 1);
+        if (layer.length != layerWidth * layerHeight) {
+            layer = new byte[layerWidth * layerHeight];
+            rowBits = new byte[layerWidth];
+            reversedRowBits = new byte[layerWidth];
+        }
+        else {
+            Arrays.fill(layer, (byte) 0);
+        }
+        typeCount = 0;
+    }
+
+    /**
+     * Remembers the background color, for the pixels no figure covers
+     * @param rgb The color, as 0xRRGGBB
+     */
+    @Override
+    void fillBackground(int rgb) {
+        background = rgb;
+    }
+
+    /**
+     * Fills the primary copy of every figure of one type into the layer
+     */
+    @Override
+    void fillFigures(Snapshot snapshot, FigureType type, int w, int h, int rgb, int width, int height) {
+        int t = type.ordinal();
+        typeOrder[typeCount++] = t;
+        typeColors[t] = rgb;
+        typeWidths[t] = w;
+        typeHeights[t] = h;
+        byte bit = (byte) (1 << t);
+        byte code = type.code();
+        int[] starts = spanStarts[t][Orientation.UP.ordinal()];
+        int[] ends = spanEnds[t][Orientation.UP.ordinal()];
+        byte[] types = snapshot.type;
+        for (int i = 0; i < snapshot.count; i++) {
+            if (types[i] != code) {
+                continue;
+            }
+            int x = snapshot.xPosition[i];
+            int y = snapshot.yPosition[i];
+            int toRow = Math.min(starts.length, layerHeight - y);
+            for (int row = Math.max(0, -y); row < toRow; row++) {
+                int rowStart = (y + row) * layerWidth;
+                int to = Math.min(x + ends[row], layerWidth);
+                for (int k = Math.max(x + starts[row], 0); k < to; k++) {
+                    layer[rowStart + k] |= bit;
+                }
+            }
+            drawnCopies += Reflection.COPIES;
+        }
+    }
+
+    /**
+     * Builds the frame from the layer, then draws it
+     */
+    @Override
+    void present(Graphics g) {
+        if (clipX0 < clipX1 && clipY0 < clipY1) {
+            makeColorTable();
+            transposeLayer();
+            for (int y = clipY0; y < clipY1; y++) {
+                composeRow(y);
+            }
+        }
+        super.present(g);
+    }
+
+    /**
+     * Works out the color of every combination of type bits
+     */
+    private void makeColorTable() {
+        for (int bits = 0; bits < colorOfBits.length; bits++) {
+            int rgb = background;
+            for (int k = 0; k < typeCount; k++) {
+                if ((bits & (1 << typeOrder[k])) != 0) {
+                    rgb = typeColors[typeOrder[k]];
+                }
+            }
+            colorOfBits[bits] = rgb;
+        }
+    }
+
+    /**
+     * Copies the layer into transposed, so that column x of the layer
+     * is row x of transposed. Each row has enough zeros before and
+     * after it that the transposed copies can read past the edges of
+     * the layer without checking.
+     */
+    private void transposeLayer() {
+        int margin = 0;
+        for (int k = 0; k < typeCount; k++) {
+            margin = Math.max(margin, Math.max(typeWidths[typeOrder[k]], typeHeights[typeOrder[k]]));
+        }
+        // Frame columns read the layer's columns from H - W up to W + th - 1
+        int offset = margin + Math.max(0, layerWidth - layerHeight);
+        int stride = offset + Math.max(layerWidth, layerHeight) + margin;
+        if (transposedStride != stride || transposedOffset != offset || transposed.length != layerWidth * stride) {
+            transposed = new byte[layerWidth * stride];
+            transposedStride = stride;
+            transposedOffset = offset;
+        }
+        for (int y = 0; y < layerHeight; y++) {
+            int from = y * layerWidth;
+            int to = offset + y;
+            for (int x = 0; x < layerWidth; x++, to += stride) {
+                transposed[to] = layer[from + x];
+            }
+        }
+    }
+
+    /**
+     * Gathers the type bits reflected onto one row of the clip, and
+     * colors the row's pixels by them. Half the copies read the layer
+     * backwards along the row; rather than read backwards, their bits
+     * are gathered forwards into reversedBits, indexed by W - 1 - x,
+     * so that every gathering loop is a simple forward one.
+     * @param y The row of the frame
+     */
+    private void composeRow(int y) {
+        int w = layerWidth;
+        int x0 = clipX0;
+        int x1 = clipX1;
+        int reversedX0 = w - x1;
+        int reversedX1 = w - x0;
+        byte[] bits = rowBits;
+        byte[] reversedBits = reversedRowBits;
+        // Copies 0 to 3: this row and its mirror, forwards and backwards
+        int row = y * w;
+        int mirrorRow = (layerHeight - 1 - y) * w;
+        for (int x = x0; x < x1; x++) {
+            bits[x] = (byte) (layer[row + x] | layer[mirrorRow + x]);
+        }
+        for (int x = reversedX0; x < reversedX1; x++) {
+            reversedBits[x] = (byte) (layer[row + x] | layer[mirrorRow + x]);
+        }
+        // Copies 4 to 7: columns y + tw and W + tw - 1 - y of the layer,
+        // read forwards from x + th and backwards from H + th - 1 - x
+        for (int k = 0; k < typeCount; k++) {
+            int t = typeOrder[k];
+            int tw = typeWidths[t];
+            int th = typeHeights[t];
+            byte bit = (byte) (1 << t);
+            gatherColumn(y + tw, th, th + layerHeight - w, bit);
+            gatherColumn(w + tw - 1 - y, th, th + layerHeight - w, bit);
+        }
+        int[] p = pixels;
+        int frameRow = y * stride;
+        for (int x = x0; x < x1; x++) {
+            p[frameRow + x] = colorOfBits[bits[x] | reversedBits[w - 1 - x]];
+        }
+    }
+
+    /**
+     * Adds one type's bits from one column of the layer to the bits of
+     * the row being composed
+     * @param column The column of the layer, which may be off the layer
+     * @param start Where the forward read of the column starts, less x
+     * @param reversedStart Where the backward read starts, less W - 1 - x
+     * @param bit The type's bit
+     */
+    private void gatherColumn(int column, int start, int reversedStart, byte bit) {
+        if (column < 0 || column >= layerWidth) {
+            return;
+        }
+        int base = column * transposedStride + transposedOffset;
+        byte[] bits = rowBits;
+        for (int x = clipX0, i = base + start + x; x < clipX1; x++, i++) {
+            bits[x] |= transposed[i] & bit;
+        }
+        bits = reversedRowBits;
+        for (int x = layerWidth - clipX1, i = base + reversedStart + x; x < layerWidth - clipX0; x++, i++) {
+            bits[x] |= transposed[i] & bit;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package kaleidoscope;
+
+import java.awt.Graphics;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A RasterRenderer that splits the frame into square tiles and fills
+ * the tiles in parallel on a ForkJoinPool. While the SceneRenderer
+ * hands it figures, a TileRenderer only records them: the bounding box
+ * of each reflected copy is put in the bin of every tile it overlaps,
+ * and copies that miss the clip entirely are dropped. When the frame
+ * is presented, each tile is filled by one task, which clears its own
+ * region of the shared raster and draws the copies in its bin, clipped
+ * to the tile. No two tasks write the same pixel, so none of them
+ * need to synchronize.
+ * <p>
+ * Copies are binned in the order they are handed over, which is the
+ * order the View paints them in. Each tile therefore draws overlapping
+ * figures in the same order, and the frame comes out exactly the same
+ * as with one thread.
+ */
+class TileRenderer extends RasterRenderer {
+    /** Default width and height of a tile, in pixels. */
+    static final int DEFAULT_TILE_SIZE = 128;
+    private final ForkJoinPool pool;
+    private final int tileSize;
+    /** The background color of the current frame. */
+    private int background;
+    /** The tile grid of the current frame, in tile coordinates. */
+    private int firstColumn;
+    private int firstRow;
+    private int columns;
+    private int tileCount;
+    /** The copies recorded this frame: position, shape and color. */
+    private int recordCount;
+    private int[] recordX = new int[256];
+    private int[] recordY = new int[256];
+    private int[] recordShape = new int[256];
+    private int[] recordColor = new int[256];
+    /** For each tile, the records that overlap it, in paint order. */
+    private int[][] bins = new int[0][];
+    private int[] binSizes = new int[0];
+    /** The span tables of each shape, indexed by recordShape. */
+    private final int[][] shapeStarts = new int[FigureType.ALL.length * Orientation.ALL.length][];
+    private final int[][] shapeEnds = new int[FigureType.ALL.length * Orientation.ALL.length][];
+
+    /**
+     * Constructor
+     * @param model The Model whose figure sizes are used
+     * @param triXTemplates The x offsets of the triangle's vertices, by orientation
+     * @param triYTemplates The y offsets of the triangle's vertices, by orientation
+     * @param pool The pool to fill the tiles on
+     * @param tileSize The width and height of a tile, in pixels
+     */
+    TileRenderer(Model model, int[][] triXTemplates, int[][] triYTemplates, ForkJoinPool pool, int tileSize) {
+        super(model, triXTemplates, triYTemplates);
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tileSize must be positive: " + tileSize);
+        }
+        this.pool = pool;
+        this.tileSize = tileSize;
+        for (int t = 0; t < FigureType.ALL.length; t++) {
+            for (int o = 0; o < Orientation.ALL.length; o++) {
+                shapeStarts[t * Orientation.ALL.length + o] = spanStarts[t][o];
+                shapeEnds[t * Orientation.ALL.length + o] = spanEnds[t][o];
+            }
+        }
+    }
+
+    @Override
+    void begin(int width, int height, int clipX, int clipY, int clipWidth, int clipHeight) {
+        super.begin(width, height, clipX, clipY, clipWidth, clipHeight);
+        recordCount = 0;
+        if (clipX0 >= clipX1 || clipY0 >= clipY1) {
+            tileCount = 0;
+            return;
+        }
+        firstColumn = clipX0 / tileSize;
+        firstRow = clipY0 / tileSize;
+        columns = (clipX1 - 1) / tileSize + 1 - firstColumn;
+        int rows = (clipY1 - 1) / tileSize + 1 - firstRow;
+        tileCount = columns * rows;
+        if (bins.length < tileCount) {
+            int oldLength = bins.length;
+            bins = Arrays.copyOf(bins, tileCount);
+            for (int i = oldLength; i < tileCount; i++) {
+                bins[i] = new int[64];
+            }
+        }
+        if (binSizes.length < tileCount) {
+            binSizes = new int[tileCount];
+        }
+        Arrays.fill(binSizes, 0, tileCount, 0);
+    }
+
+    /**
+     * Remembers the background color, which each tile fills itself with
+     * when the frame is presented
+     * @param rgb The color, as 0xRRGGBB
+     */
+    @Override
+    void fillBackground(int rgb) {
+        background = rgb;
+    }
+
+    /**
+     * Bins the 8 copies of every figure of one type into the tiles that
+     * their bounding boxes overlap. Nothing is drawn until present.
+     */
+    @Override
+    void fillFigures(Snapshot snapshot, FigureType type, int w, int h, int rgb, int width, int height) {
+        byte code = type.code();
+        byte[] types = snapshot.type;
+        for (int i = 0; i < snapshot.count; i++) {
+            if (types[i] != code) {
+                continue;
+            }
+            int x = snapshot.xPosition[i];
+            int y = snapshot.yPosition[i];
+            for (int copy = 0; copy < Reflection.COPIES; copy++) {
+                Orientation orientation = Reflection.orientation(copy);
+                int boxWidth = orientation.isSideways() ? h : w;
+                int boxHeight = orientation.isSideways() ? w : h;
+                bin(Reflection.x(copy, x, y, w, h, width, height), Reflection.y(copy, x, y, w, h, width, height),
+                        boxWidth, boxHeight, type.ordinal() * Orientation.ALL.length + orientation.ordinal(), rgb);
+            }
+        }
+    }
+
+    /**
+     * Records one copy and adds it to the bin of every tile that its
+     * bounding box overlaps, unless it is outside the clip, in which
+     * case it is counted as culled
+     * @param x The x position of the copy
+     * @param y The y position of the copy
+     * @param boxWidth The width of the copy's bounding box
+     * @param boxHeight The height of the copy's bounding box
+     * @param shape The index of the copy's span tables
+     * @param rgb The color of the copy, as 0xRRGGBB
+     */
+    private void bin(int x, int y, int boxWidth, int boxHeight, int shape, int rgb) {
+        int x0 = Math.max(x, clipX0);
+        int y0 = Math.max(y, clipY0);
+        int x1 = Math.min(x + boxWidth, clipX1);
+        int y1 = Math.min(y + boxHeight, clipY1);
+        if (x0 >= x1 || y0 >= y1) {
+            culledCopies++;
+            return;
+        }
+        drawnCopies++;
+        if (recordCount == recordX.length) {
+            int capacity = 2 * recordCount;
+            recordX = Arrays.copyOf(recordX, capacity);
+            recordY = Arrays.copyOf(recordY, capacity);
+            recordShape = Arrays.copyOf(recordShape, capacity);
+            recordColor = Arrays.copyOf(recordColor, capacity);
+        }
+        int record = recordCount++;
+        recordX[record] = x;
+        recordY[record] = y;
+        recordShape[record] = shape;
+        recordColor[record] = rgb;
+        int lastColumn = (x1 - 1) / tileSize - firstColumn;
+        int lastRow = (y1 - 1) / tileSize - firstRow;
+        for (int row = y0 / tileSize - firstRow; row <= lastRow; row++) {
+            for (int column = x0 / tileSize - firstColumn; column <= lastColumn; column++) {
+                int tile = row * columns + column;
+                int size = binSizes[tile];
+                if (size == bins[tile].length) {
+                    bins[tile] = Arrays.copyOf(bins[tile], 2 * size);
+                }
+                bins[tile][size] = record;
+                binSizes[tile] = size + 1;
+            }
+        }
+    }
+
+    /**
+     * Fills every tile in parallel, then draws the frame
+     */
+    @Override
+    void present(Graphics g) {
+        if (tileCount > 1) {
+            pool.invoke(new TileTask(0, tileCount));
+        }
+        else if (tileCount == 1) {
+            fillTile(0);
+        }
+        super.present(g);
+    }
+
+    /**
+     * Clears one tile and draws the copies in its bin, clipped to the tile
+     * @param tile The index of the tile in the current grid
+     */
+    private void fillTile(int tile) {
+        int column = firstColumn + tile % columns;
+        int row = firstRow + tile / columns;
+        int x0 = Math.max(column * tileSize, clipX0);
+        int y0 = Math.max(row * tileSize, clipY0);
+        int x1 = Math.min((column + 1) * tileSize, clipX1);
+        int y1 = Math.min((row + 1) * tileSize, clipY1);
+        fillRect(background, x0, y0, x1, y1);
+        int[] bin = bins[tile];
+        for (int k = 0, size = binSizes[tile]; k < size; k++) {
+            int record = bin[k];
+            int shape = recordShape[record];
+            fillSpans(recordX[record], recordY[record], shapeStarts[shape], shapeEnds[shape],
+                    recordColor[record], x0, y0, x1, y1);
+        }
+    }
+
+    /**
+     * Fills one range of tiles, splitting it in half until each task
+     * has one tile.
+     */
+    @SuppressWarnings("serial")
+    private class TileTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        TileTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                fillTile(from);
+            }
+            else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TileTask(from, mid), new TileTask(mid, to));
+            }
+        }
+    }
+}
@@ -2,13 +2,13 @@ package kaleidoscope;
 
 import java.awt.Color;
 import java.awt.Graphics;
-import java.util.Observable;
-import java.util.Observer;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 /**
- * The View "observes" and displays what is going on in the Model.
+ * The View listens to and displays what is going on in the Model.
  * In this example, the Model contains some number of figures (balls,
  * rectangles and triangles) bouncing around a confined area.
  * 
@@ -17,283 +17,282 @@ import javax.swing.JPanel;
  * @author Ted Fujimoto
  */
 @SuppressWarnings("serial")
-public class View extends JPanel implements Observer {
+public class View extends JPanel implements ModelListener {
     
-    /** This is what we will be observing. */
+    /** This is what we will be listening to. */
     Model model;
     Color GREEN = Color.green.darker();
     Color RED = Color.red.darker();
     Color BLUE = Color.blue.darker();
-    Color ballColor;
-    Color rectColor;
-    Color triColor;
-    Color bgColor;
+    /** Paints the figures, the same way a HeadlessRenderer does. */
+    SceneRenderer scene;
+    /** Whether to draw the metrics on top of the figures. */
+    boolean overlayEnabled;
+    /** The width of the metrics overlay, in pixels. */
+    static final int OVERLAY_WIDTH = 360;
+    /** The number of lines of metrics in the overlay. */
+    static final int OVERLAY_LINES = 6;
+    /** The height of the overlay, which is repainted with the damage every tick. */
+    private volatile int overlayHeight;
+    /** Where the figures to paint come from: the model, unless replaying. */
+    SnapshotSource source;
+    /** The damage told of by the model and not yet painted, which also guards damagePaintQueued. */
+    private final Damage pendingDamage = new Damage();
+    /** Set while paintDamage is waiting to run on the event dispatch thread. */
+    private boolean damagePaintQueued;
+    /** The damage paintDamage is painting, only used on the event dispatch thread. */
+    private final Damage paintingDamage = new Damage();
+    /** The snapshot paintDamage is painting every region from, or null. */
+    private Snapshot regionSnapshot;
+    private final Runnable damagePainter = new Runnable() {
+        @Override
+        public void run() {
+            paintDamage();
+        }
+    };
 
     /**
      * Constructor.
      * @param model The Model whose working is to be displayed.
      */
-    View(Model model) {
+    View(final Model model) {
         this.model = model;
-        ballColor = GREEN;
-        rectColor = BLUE;
-        triColor = RED;
-        bgColor = Color.BLACK;
+        source = new SnapshotSource() {
+            @Override
+            public Snapshot acquireSnapshot() {
+                return model.acquireSnapshot();
+            }
+        };
+        scene = new SceneRenderer(model);
+        scene.setColor(FigureType.BALL, GREEN);
+        scene.setColor(FigureType.RECT, BLUE);
+        scene.setColor(FigureType.TRI, RED);
+        scene.setBackground(Color.BLACK);
+        pendingDamage.clear();
     }
 
     /**
-     * Displays what is going on in the Model. Note: This method should
-     * NEVER be called directly; call repaint() instead.
+     * Sets the renderer used to paint figures of the given type,
+     * replacing any renderer registered for it before.
+     * @param type The figure type to be painted
+     * @param renderer The renderer to paint it with
+     */
+    public void registerRenderer(FigureType type, FigureRenderer renderer) {
+        scene.registerRenderer(type, renderer);
+    }
+
+    /**
+     * Displays what is going on in the Model, as of the latest snapshot
+     * it has published. Only the area inside the clip is repainted,
+     * since the rest hasn't changed. Note: This method should NEVER be
+     * called directly; call repaint() instead.
      * 
      * @param g The Graphics on which to paint things.
      * @see javax.swing.JComponent#paint(java.awt.Graphics)
      */
     @Override
     public void paint(Graphics g) {
-    	Figure thisFigure;
-        g.setColor(bgColor);
-        g.fillRect(0, 0, getWidth(), getHeight());
-        for (int i = 0; i < model.numObjects; i++) {
-			thisFigure = model.getFigure(i);
-			if (thisFigure.getType().equals("ball")) {
-				g.setColor(ballColor);
-				paintBalls(g, thisFigure);
-			} else if (thisFigure.getType().equals("rect")) {
-				g.setColor(rectColor);
-				paintRectangle(g, thisFigure);
-			} else if (thisFigure.getType().equals("tri")) {
-				g.setColor(triColor);
-				paintTriangles(g, thisFigure);
+    	if (regionSnapshot != null) {
+    		// One of the regions of paintDamage, which records the time taken
+    		paintSnapshot(g, regionSnapshot);
+    		return;
+    	}
+    	long start = System.nanoTime();
+    	paintSnapshot(g, source.acquireSnapshot());
+        model.getMetrics().recordPaint(start, System.nanoTime() - start);
+    }
 
-			}
-		}
+    /**
+     * Paints one snapshot of the figures, and the overlay if it is on
+     * 
+     * @param g The Graphics on which to paint things.
+     * @param snapshot The figures to paint.
+     */
+    private void paintSnapshot(Graphics g, Snapshot snapshot) {
+    	scene.setGraphicsConfiguration(getGraphicsConfiguration());
+    	scene.paint(g, snapshot, getWidth(), getHeight());
+        model.getMetrics().recordCopies(scene.getDrawnCopies(), scene.getCulledCopies());
+        if (overlayEnabled) {
+        	paintOverlay(g);
+        }
     }
 
 	/**
-	 * Paints the 8 different copies of the ball
-	 *
-	 * @param g The Graphics on which to paint things.
-	 * @param ball The Ball object to be painted (and reflected)
+	 * Paints the regions the Model has said changed, each on its own,
+	 * from the same snapshot. Swing would merge regions passed to
+	 * repaint into the one rectangle around them all, which for a few
+	 * figures spread over a large panel is most of it. Runs on the
+	 * event dispatch thread.
 	 */
-	private void paintBalls(Graphics g, Figure ball) {
-		int x = ball.getXPosition();
-		int y = ball.getYPosition();
-		int negX = getNegativeX(x);
-		int negY = getNegativeY(y);
-		int size = model.BALL_SIZE;
-		g.fillOval(x, y, size, size);
-		g.fillOval(negX - size, y, size, size);
-		g.fillOval(x, negY - size, size, size);
-		g.fillOval(negX - size, negY - size, size, size);
-		g.fillOval(y - size, x - size, size, size);
-		g.fillOval(negY, x - size, size, size);
-		g.fillOval(y - size, negX, size, size);
-		g.fillOval(negY, negX, size, size);
+	private void paintDamage() {
+		synchronized (pendingDamage) {
+			paintingDamage.copyFrom(pendingDamage);
+			pendingDamage.clear();
+			damagePaintQueued = false;
+		}
+		int width = getWidth();
+		int height = getHeight();
+		if (!isShowing() || paintingDamage.area(width, height) > model.getDamageAreaLimit() * width * height) {
+			repaint();
+			return;
+		}
+		long start = System.nanoTime();
+		regionSnapshot = source.acquireSnapshot();
+		try {
+			for (int i = 0; i < paintingDamage.getRegionCount(); i++) {
+				paintImmediately(paintingDamage.getX(i), paintingDamage.getY(i),
+						paintingDamage.getWidth(i), paintingDamage.getHeight(i));
+			}
+		} finally {
+			regionSnapshot = null;
+		}
+		model.getMetrics().recordPaint(start, System.nanoTime() - start);
 	}
 
 	/**
-	 * Paints the 8 different copies of the rectangle
+	 * Paints the model's metrics in the top left corner of the panel.
+	 * Unlike the figures, this allocates a few strings each frame.
 	 *
 	 * @param g The Graphics on which to paint things.
-	 * @param rectangle The Rectangle object to be painted (and reflected)
 	 */
-	private void paintRectangle(Graphics g, Figure rectangle) {
-		int x = rectangle.getXPosition();
-		int y = rectangle.getYPosition();
-		int negX = getNegativeX(x);
-		int negY = getNegativeY(y);
-		int width = model.RECT_WIDTH;
-		int height = model.RECT_HEIGHT;
-		g.fillRect(x, y, width, height);
-		g.fillRect(negX - width, y, width, height);
-		g.fillRect(x, negY - height, width, height);
-		g.fillRect(negX - width, negY - height, width, height);
-		g.fillRect(y - height, x - width, height, width);
-		g.fillRect(negY, x - width, height, width);
-		g.fillRect(y - height, negX, height, width);
-		g.fillRect(negY, negX, height, width);
+	private void paintOverlay(Graphics g) {
+		Metrics metrics = model.getMetrics();
+		String[] lines = {
+			String.format("%.1f fps, %.1f ticks/s, %d figures",
+					metrics.getFramesPerSecond(), metrics.getTicksPerSecond(), metrics.getFigureCount()),
+			String.format("step %d / %d us (p50 / p99), tick interval %.0f us",
+					metrics.getStepTime50(), metrics.getStepTime99(), metrics.getTickIntervalMean()),
+			String.format("paint %d / %d us (p50 / p99)",
+					metrics.getPaintTime50(), metrics.getPaintTime99()),
+			String.format("%d dropped ticks, %d coalesced frames",
+					metrics.getDroppedTicks(), metrics.getCoalescedFrames()),
+			String.format("%.1f candidate pairs, %.1f collisions per tick",
+					(double) metrics.getCandidatePairs() / Math.max(1, metrics.getTickCount()),
+					(double) metrics.getCollisions() / Math.max(1, metrics.getTickCount())),
+			String.format("%.0f%% of copies culled off-screen", 100.0 * metrics.getCulledCopies()
+					/ Math.max(1, metrics.getDrawnCopies() + metrics.getCulledCopies()))
+		};
+		int lineHeight = g.getFontMetrics().getHeight();
+		overlayHeight = lines.length * lineHeight + 6;
+		g.setColor(Color.BLACK);
+		g.fillRect(0, 0, OVERLAY_WIDTH, overlayHeight);
+		g.setColor(Color.WHITE);
+		for (int i = 0; i < lines.length; i++) {
+			g.drawString(lines[i], 4, (i + 1) * lineHeight);
+		}
 	}
 
 	/**
-	 * Paints the 8 different copies of the triangle
+	 * Turns the on-screen metrics overlay on or off
 	 *
-	 * @param g The Graphics on which to paint things.
-	 * @param tri The Triangle object to be painted (and reflected)
+	 * @param enabled true to draw the metrics over the figures
 	 */
-	private void paintTriangles(Graphics g, Figure tri) {
-		int x = tri.getXPosition();
-		int y = tri.getYPosition();
-		int negX = getNegativeX(x);
-		int negY = getNegativeY(y);
-		int width = model.TRI_WIDTH;
-		int height = model.TRI_HEIGHT;
-		drawTriangle(g, x, y, "up");
-		drawTriangle(g, negX - width, y, "up");
-		drawTriangle(g, x, negY - height, "down");
-		drawTriangle(g, negX - width, negY - height, "down");
-		drawTriangle(g, y - height, x - width, "left");
-		drawTriangle(g, negY, x - width, "right");
-		drawTriangle(g, y - height, negX, "left");
-		drawTriangle(g, negY, negX, "right");
+	public void setOverlayEnabled(boolean enabled) {
+		if (enabled && overlayHeight == 0) {
+			// Until the overlay is first painted and measured
+			overlayHeight = OVERLAY_LINES * getFontMetrics(getFont()).getHeight() + 6;
+		}
+		overlayEnabled = enabled;
+		repaint();
 	}
 
 	/**
-	 * Calculates the coordinates of a triangle based on the x & y
-	 * position of the triangle and the direction that it is pointing,
-	 * then paints the triangle. Throws an exception if the direction
-	 * provided is not valid.
+	 * When the Model completes a tick, this is the method that gets
+	 * called. If the Model says which parts of the display changed,
+	 * only those parts are repainted, each on its own, unless they add
+	 * up to more of the panel than the Model's damage area limit. The
+	 * Model stops tracking damage at that limit, but damage carried
+	 * over from a snapshot the View never saw can still add up to more.
+	 * The metrics overlay, when it is on, is repainted with the damage,
+	 * since its numbers change every tick.
 	 *
-	 * @param g The Graphics on which to paint things.
-	 * @param x The x position of the triangle
-	 * @param y The y position of the triangle
-	 * @param dir The direction that the triangle is pointing
-	 * ("up", "down", "left", or "right")
+	 * @param tick The tick the Model is now at.
+	 * @param stepNanos How long the step took.
+	 * @param damage The parts of the display that changed, or null.
 	 */
-	private void drawTriangle(Graphics g, int x, int y, String dir) {
-		int[] xCoords = new int[3];
-		int[] yCoords = new int[3];
-		if (dir.equals("up")) {
-			getUpCoords(x, y, xCoords, yCoords);
-		}
-		else if (dir.equals("down")) {
-			getDownCoords(x, y, xCoords, yCoords);
-		}
-		else if (dir.equals("left")) {
-			getLeftCoords(x, y, xCoords, yCoords);
+	@Override
+	public void tickCompleted(long tick, long stepNanos, Damage damage) {
+		if (damage == null) {
+			repaint();
+			return;
 		}
-		else if (dir.equals("right")) {
-			getRightCoords(x, y, xCoords, yCoords);
+		int width = getWidth();
+		int height = getHeight();
+		if (damage.isFull() || damage.area(width, height) > model.getDamageAreaLimit() * width * height) {
+			repaint();
+			return;
 		}
-		else {
-			throw new IllegalArgumentException();
+		synchronized (pendingDamage) {
+			pendingDamage.add(damage);
+			if (overlayEnabled) {
+				pendingDamage.add(0, 0, OVERLAY_WIDTH, overlayHeight);
+			}
+			if (damagePaintQueued) {
+				return;
+			}
+			damagePaintQueued = true;
 		}
-		g.fillPolygon(xCoords, yCoords, 3);
-	}
-
-	/**
-	 * Calculates the x & y coordinates of the
-	 * vertices of an upwards pointing triangle
-	 *
-	 * @param x The x position of the triangle.
-	 * @param y The y position of the triangle.
-	 * @param xCoords An array of size 3 that is loaded
-	 * with the x coordinates of the triangle's vertices
-	 * @param yCoords An array of size 3 that is loaded
-	 * with the y coordinates of the triangle's vertices
-	 */
-	private void getUpCoords(int x, int y, int[] xCoords, int[] yCoords) {
-		xCoords[0] = x;
-		xCoords[1] = x + model.TRI_WIDTH / 2;
-		xCoords[2] = x + model.TRI_WIDTH;
-		yCoords[0] = y + model.TRI_HEIGHT;
-		yCoords[1] = y;
-		yCoords[2] = y + model.TRI_HEIGHT;
+		SwingUtilities.invokeLater(damagePainter);
 	}
 
 	/**
-	 * Calculates the x & y coordinates of the
-	 * vertices of a downwards pointing triangle
+	 * Repaints the figures where the Model has put them inside the new walls.
 	 *
-	 * @param x The x position of the triangle.
-	 * @param y The y position of the triangle.
-	 * @param xCoords An array of size 3 that is loaded
-	 * with the x coordinates of the triangle's vertices
-	 * @param yCoords An array of size 3 that is loaded
-	 * with the y coordinates of the triangle's vertices
+	 * @param width The new width of the display.
+	 * @param height The new height of the display.
 	 */
-	private void getDownCoords(int x, int y, int[] xCoords, int[] yCoords) {
-		xCoords[0] = x;
-		xCoords[1] = x + model.TRI_WIDTH;
-		xCoords[2] = x + model.TRI_WIDTH / 2;
-		yCoords[0] = y;
-		yCoords[1] = y;
-		yCoords[2] = y + model.TRI_HEIGHT;
-	}
-
-	/**
-	 * Calculates the x & y coordinates of the
-	 * vertices of a leftwards pointing triangle
-	 *
-	 * @param x The x position of the triangle.
-	 * @param y The y position of the triangle.
-	 * @param xCoords An array of size 3 that is loaded
-	 * with the x coordinates of the triangle's vertices
-	 * @param yCoords An array of size 3 that is loaded
-	 * with the y coordinates of the triangle's vertices
-	 */
-	private void getLeftCoords(int x, int y, int[] xCoords, int[] yCoords) {
-		xCoords[0] = x;
-		xCoords[1] = x + model.TRI_HEIGHT;
-		xCoords[2] = x + model.TRI_HEIGHT;
-		yCoords[0] = y + model.TRI_WIDTH / 2;
-		yCoords[1] = y;
-		yCoords[2] = y + model.TRI_WIDTH;
+	@Override
+	public void limitsChanged(int width, int height) {
+		repaint();
 	}
 
 	/**
-	 * Calculates the x & y coordinates of the
-	 * vertices of a rightwards pointing triangle
+	 * Does nothing, since the figures don't look any different at a new speed.
 	 *
-	 * @param x The x position of the triangle.
-	 * @param y The y position of the triangle.
-	 * @param xCoords An array of size 3 that is loaded
-	 * with the x coordinates of the triangle's vertices
-	 * @param yCoords An array of size 3 that is loaded
-	 * with the y coordinates of the triangle's vertices
+	 * @param speedFactor The new speed of the figures.
 	 */
-	private void getRightCoords(int x, int y, int[] xCoords, int[] yCoords) {
-		xCoords[0] = x;
-		xCoords[1] = x + model.TRI_HEIGHT;
-		xCoords[2] = x;
-		yCoords[0] = y;
-		yCoords[1] = y + model.TRI_WIDTH / 2;
-		yCoords[2] = y + model.TRI_WIDTH;
+	@Override
+	public void velocityChanged(float speedFactor) {
 	}
 
 	/**
-	 * Returns the x coordinate on the view that
-	 * corresponds to the negative of the given x
-	 * coordinate in a center-origin coordinate system
+	 * Repaints the whole panel to show the new figures.
 	 *
-	 * @param x The x coordinate
-	 * @return The coordinate corresponding to negative x
+	 * @param from The index of the first new figure.
+	 * @param to One past the index of the last new figure.
 	 */
-	private int getNegativeX(int x) {
-		return getWidth() - x;
+	@Override
+	public void figuresAdded(int from, int to) {
+		repaint();
 	}
 
 	/**
-	 * Returns the y coordinate on the view that
-	 * corresponds to the negative of the given y
-	 * coordinate in a center-origin coordinate system
+	 * Repaints the whole panel to clear away the removed figures.
 	 *
-	 * @param y The y coordinate
-	 * @return The coordinate corresponding to negative y
+	 * @param from The first index whose figure was removed or replaced.
+	 * @param to One past the last such index.
 	 */
-	private int getNegativeY(int y) {
-		return getHeight() - y;
+	@Override
+	public void figuresRemoved(int from, int to) {
+		repaint();
 	}
 
 	/**
-	 * When an Observer notifies Observers (and this View is an Observer),
-	 * this is the method that gets called.
+	 * Does nothing, since the window never records.
 	 *
-	 * @param obs Holds a reference to the object being observed.
-	 * @param arg If notifyObservers is given a parameter, it is received here.
-	 * @see java.util.Observer#update(java.util.Observable, java.lang.Object)
+	 * @param cause Why the recording stopped.
 	 */
 	@Override
-	public void update(Observable obs, Object arg) {
-		repaint();
+	public void recordingStopped(Exception cause) {
 	}
-	
+
 	/**
 	 * Changes the color to use when painting balls
 	 *
 	 * @param color The color to use for balls.
 	 */
 	public void setBallColor(String colorString) {
-		ballColor = getColor(colorString);
+		scene.setColor(FigureType.BALL, getColor(colorString));
 	}
 	
 	/**
@@ -302,7 +301,7 @@ public class View extends JPanel implements Observer {
 	 * @param color The color to use for rectangles.
 	 */
 	public void setRectColor(String colorString) {
-		rectColor = getColor(colorString);
+		scene.setColor(FigureType.RECT, getColor(colorString));
 	}
 	
 	/**
@@ -311,7 +310,7 @@ public class View extends JPanel implements Observer {
 	 * @param color The color to use for triangles.
 	 */
 	public void setTriColor(String colorString) {
-		triColor = getColor(colorString);
+		scene.setColor(FigureType.TRI, getColor(colorString));
 	}
 	
 	/**
@@ -320,7 +319,84 @@ public class View extends JPanel implements Observer {
 	 * @param color The color to use for background.
 	 */
 	public void setBgColor(String colorString) {
-		bgColor = getColor(colorString);
+		scene.setBackground(getColor(colorString));
+	}
+
+	/**
+	 * Turns drawing from pre-rendered sprites on or off. With sprites
+	 * off, as they are unless this is called, every copy of every
+	 * figure is filled with Java2D directly.
+	 *
+	 * @param enabled true to draw figures from the sprite cache
+	 */
+	public void setSpritesEnabled(boolean enabled) {
+		scene.setSpritesEnabled(enabled);
+	}
+
+	/**
+	 * Turns the software rasterizer on or off. With it on, the built-in
+	 * shapes are filled into an image of the panel, which is drawn with
+	 * a single drawImage, instead of with one Java2D call per copy.
+	 *
+	 * @param enabled true to draw the built-in shapes with a RasterRenderer
+	 */
+	public void setRasterEnabled(boolean enabled) {
+		scene.setRasterEnabled(enabled);
+		repaint();
+	}
+
+	/**
+	 * Makes the View paint snapshots from somewhere other than its
+	 * model, such as a Replayer. The View doesn't know when a new one
+	 * is ready, so whatever changes the source must call repaint.
+	 *
+	 * @param source Where to take snapshots from
+	 */
+	void setSnapshotSource(SnapshotSource source) {
+		this.source = source;
+		repaint();
+	}
+
+	/**
+	 * Turns symmetry mode on or off. In symmetry mode only one copy of
+	 * each figure is drawn, and the other 7 are made by reflecting the
+	 * pixels it covers.
+	 *
+	 * @param enabled true to draw in symmetry mode
+	 */
+	public void setSymmetryEnabled(boolean enabled) {
+		scene.setSymmetryEnabled(enabled);
+		repaint();
+	}
+
+	/**
+	 * Makes the software rasterizer split the panel into tiles and fill
+	 * them in parallel.
+	 *
+	 * @param pool The pool to fill tiles on, or null to fill them all on
+	 * the event dispatch thread
+	 */
+	public void setTilePool(ForkJoinPool pool) {
+		scene.setTilePool(pool);
+		repaint();
+	}
+
+	/**
+	 * Returns the number of sprite lookups that found a cached sprite
+	 *
+	 * @return The number of sprite cache hits
+	 */
+	public long getSpriteHits() {
+		return scene.getSprites().getHits();
+	}
+
+	/**
+	 * Returns the number of sprite lookups that had to render a sprite
+	 *
+	 * @return The number of sprite cache misses
+	 */
+	public long getSpriteMisses() {
+		return scene.getSprites().getMisses();
 	}
 
     /**
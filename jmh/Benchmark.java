@@ -0,0 +1,204 @@
+package kaleidoscope;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs the JMH benchmarks in this directory with the GC profiler, then
+ * sums them up one line each: operations per second (mean and spread
+ * over the iterations) and bytes allocated per operation. A line's name
+ * is the benchmark's class, less "Benchmark", its method and its
+ * parameters, as in "Model.makeOneStep/1000".
+ * <p>
+ * Usage: <code>java kaleidoscope.Benchmark [--quick] [--counts n,n,...]
+ * [--baseline file] [--save file] [name-regex]</code>
+ * <p>
+ * --counts replaces the figure counts the Model benchmarks are run at,
+ * and name-regex picks benchmarks as JMH's own include pattern does.
+ * With --baseline, each result is compared with the same line in a
+ * file saved by --save, and changes of more than 10% are flagged.
+ * benchmark-baseline.txt holds the results the project is currently
+ * expected to meet. Each benchmark runs in a fresh JVM with this one's
+ * options, so large figure counts need this JVM to have a large heap
+ * (about 1.5 GB for 10M figures). For anything else, JMH's own
+ * org.openjdk.jmh.Main can be run on the same classes.
+ */
+public class Benchmark {
+    private Map<String, double[]> baseline = new HashMap<String, double[]>();
+
+    /**
+     * Runs the benchmarks.
+     * @param args See the class comment.
+     * @throws IOException If the baseline file can't be read, or the results saved
+     * @throws RunnerException If JMH can't run a benchmark
+     */
+    public static void main(String[] args) throws IOException, RunnerException {
+        Benchmark benchmark = new Benchmark();
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .mode(Mode.Throughput)
+                .timeUnit(TimeUnit.SECONDS)
+                .forks(1)
+                .jvmArgsAppend("-Djava.awt.headless=true")
+                .addProfiler(GCProfiler.class)
+                .shouldFailOnError(true);
+        String filter = "kaleidoscope\\.";
+        String save = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--quick")) {
+                options.warmupIterations(2).warmupTime(TimeValue.milliseconds(200))
+                        .measurementIterations(3).measurementTime(TimeValue.milliseconds(200));
+            }
+            else if (args[i].equals("--counts")) {
+                options.param("count", args[++i].split(","));
+            }
+            else if (args[i].equals("--baseline")) {
+                benchmark.readBaseline(args[++i]);
+            }
+            else if (args[i].equals("--save")) {
+                save = args[++i];
+            }
+            else {
+                filter = args[i];
+            }
+        }
+        Collection<RunResult> results = new Runner(options.include(filter).build()).run();
+        List<String> lines = new ArrayList<String>();
+        lines.add(String.format("%-36s %14s %10s %12s", "# benchmark", "ops/s", "+-%", "B/op"));
+        for (RunResult result : results) {
+            lines.add(summarize(result));
+        }
+        System.out.println();
+        for (String line : lines) {
+            System.out.println(line + benchmark.compareWithBaseline(line));
+        }
+        if (save != null) {
+            save(save, lines);
+        }
+    }
+
+    /**
+     * Sums up one benchmark's result in a line
+     * @param result The result of the benchmark
+     * @return Its name, throughput, spread and allocation
+     */
+    private static String summarize(RunResult result) {
+        BenchmarkParams params = result.getParams();
+        String method = params.getBenchmark();
+        String className = method.substring(0, method.lastIndexOf('.'));
+        StringBuilder name = new StringBuilder(className.substring(className.lastIndexOf('.') + 1)
+                .replace("Benchmark", "")).append(method.substring(method.lastIndexOf('.')));
+        for (String key : params.getParamsKeys()) {
+            name.append('/').append(params.getParam(key));
+        }
+        Result primary = result.getPrimaryResult();
+        double mean = primary.getScore();
+        double deviation = primary.getStatistics().getStandardDeviation();
+        double bytesPerOp = Double.NaN;
+        for (Map.Entry<String, Result> entry : result.getSecondaryResults().entrySet()) {
+            if (entry.getKey().endsWith("gc.alloc.rate.norm")) {
+                bytesPerOp = entry.getValue().getScore();
+            }
+        }
+        return String.format("%-36s %14.1f %9.1f%% %12.1f", name, mean, 100 * deviation / mean, bytesPerOp);
+    }
+
+    /**
+     * Reads results saved by an earlier run
+     * @param fileName The file the results were saved in
+     * @throws IOException If the file can't be read
+     */
+    private void readBaseline(String fileName) throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(fileName));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = split(line);
+                if (fields != null) {
+                    baseline.put(fields[0], new double[] {
+                        Double.parseDouble(fields[1]), Double.parseDouble(fields[3])});
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves the results, headed by a note of the JVM and machine they
+     * were measured on, for a later run to compare with
+     * @param fileName The file to save them in
+     * @param lines The summary lines
+     * @throws IOException If the file can't be written
+     */
+    private static void save(String fileName, List<String> lines) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(fileName));
+        try {
+            out.printf("# kaleidoscope.Benchmark results, JDK %s (%s), %s %s, %d CPU%s, -Xmx%dm%n",
+                    System.getProperty("java.vm.version"), System.getProperty("java.vm.name"),
+                    System.getProperty("os.name"), System.getProperty("os.arch"),
+                    Runtime.getRuntime().availableProcessors(),
+                    Runtime.getRuntime().availableProcessors() == 1 ? "" : "s",
+                    Runtime.getRuntime().maxMemory() >> 20);
+            out.println("# Compare a new run with: java kaleidoscope.Benchmark --baseline " + fileName);
+            for (String line : lines) {
+                out.println(line);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Splits a summary line into its fields
+     * @param line The line, as printed by this class
+     * @return The name, ops/s, spread and B/op, or null if the line is a comment
+     */
+    private static String[] split(String line) {
+        String[] fields = line.trim().split("\\s+");
+        return fields.length >= 4 && !fields[0].startsWith("#") ? fields : null;
+    }
+
+    /**
+     * Describes how a result differs from the baseline
+     * @param line The summary line of the result
+     * @return A note to print after the line, or "" if there's no baseline
+     */
+    private String compareWithBaseline(String line) {
+        String[] fields = split(line);
+        double[] expected = fields == null ? null : baseline.get(fields[0]);
+        if (expected == null) {
+            return "";
+        }
+        double opsPerSecond = Double.parseDouble(fields[1]);
+        double bytesPerOp = Double.parseDouble(fields[3]);
+        double change = 100 * (opsPerSecond - expected[0]) / expected[0];
+        String note = String.format("  %+.0f%% vs baseline", change);
+        if (change < -10) {
+            note += "  REGRESSION";
+        }
+        if (bytesPerOp > expected[1] + 16) {
+            note += "  MORE ALLOCATION";
+        }
+        return note;
+    }
+}
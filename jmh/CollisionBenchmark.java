@@ -0,0 +1,57 @@
+package kaleidoscope;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures a Model step with collisions between figures on. The
+ * figures are spread over a display big enough that each has about as
+ * much room as 4 figures have in 600x600, however many there are, so
+ * that collisions cost about the same per figure at every count.
+ */
+@State(Scope.Thread)
+public class CollisionBenchmark {
+
+    @Param({"15", "1000", "100000", "1000000", "10000000"})
+    public int count;
+
+    private Model model;
+
+    /**
+     * Makes the model, with collisions on
+     */
+    @Setup
+    public void setUp() {
+        int side = Math.max(600, (int) (300 * Math.sqrt(count)));
+        model = new Model(count, 1);
+        Random rand = new Random(2);
+        for (int i = 0; i < count; i++) {
+            model.getFigure(i).setXPosition(rand.nextInt(side));
+            model.getFigure(i).setYPosition(rand.nextInt(side));
+        }
+        model.setLimits(side, side);
+        model.setCollisionsEnabled(true);
+    }
+
+    /**
+     * Lets go of the model before the next trial makes another
+     */
+    @TearDown
+    public void tearDown() {
+        model = null;
+    }
+
+    /**
+     * Steps every figure once, and bounces those that touch off each other
+     */
+    @Benchmark
+    public void makeOneStep() {
+        model.makeOneStep();
+    }
+}
@@ -0,0 +1,36 @@
+package kaleidoscope;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures one step of a single Figure, the unit of work every Model
+ * step repeats.
+ */
+@State(Scope.Thread)
+public class FigureBenchmark {
+    private Figure figure;
+
+    /**
+     * Makes a ball moving diagonally inside a 600x600 display
+     */
+    @Setup
+    public void setUp() {
+        figure = new Figure(100, 100, FigureType.BALL);
+        figure.setXDelta(3);
+        figure.setYDelta(2);
+        figure.setLimits(600, 600);
+    }
+
+    /**
+     * Steps the figure once
+     * @return Its new position, so that the step can't be optimized away
+     */
+    @Benchmark
+    public int makeOneStep() {
+        figure.makeOneStep();
+        return figure.getXPosition();
+    }
+}
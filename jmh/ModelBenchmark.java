@@ -0,0 +1,92 @@
+package kaleidoscope;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the Model's operations at a range of figure counts. Each
+ * benchmark works on a model of 600x600 with its limits set, and is
+ * run in a JVM of its own, so only one model is in memory at a time.
+ * 10M figures need a heap of about 1.5 GB.
+ */
+@State(Scope.Thread)
+public class ModelBenchmark {
+    private static final int WIDTH = 600;
+    private static final int HEIGHT = 600;
+
+    @Param({"15", "1000", "100000", "1000000", "10000000"})
+    public int count;
+
+    private Model model;
+    private long seekTick;
+    private float speed;
+    private int width;
+
+    /**
+     * Makes the model
+     */
+    @Setup
+    public void setUp() {
+        model = new Model(count);
+        model.setLimits(WIDTH, HEIGHT);
+        seekTick = 1000000;
+        speed = 1;
+        width = WIDTH;
+    }
+
+    /**
+     * Lets go of the model before the next trial makes another
+     */
+    @TearDown
+    public void tearDown() {
+        model = null;
+    }
+
+    /**
+     * Steps every figure once, with the engine the Model picks itself
+     */
+    @Benchmark
+    public void makeOneStep() {
+        model.makeOneStep();
+    }
+
+    /**
+     * Jumps between two distant ticks
+     */
+    @Benchmark
+    public void seek() {
+        seekTick = seekTick == 1000000 ? 2000000 : 1000000;
+        model.seek(seekTick);
+    }
+
+    /**
+     * Adds 64 balls and takes them away again
+     */
+    @Benchmark
+    public void addRemoveFigures() {
+        model.addFigures(FigureType.BALL, 64);
+        model.removeFigures(FigureType.BALL, 64);
+    }
+
+    /**
+     * Switches the figures between two speeds
+     */
+    @Benchmark
+    public void changeVelocity() {
+        speed = speed == 1 ? 2 : 1;
+        model.changeVelocity(speed);
+    }
+
+    /**
+     * Switches the display between two widths
+     */
+    @Benchmark
+    public void setLimits() {
+        width = width == WIDTH ? WIDTH - 50 : WIDTH;
+        model.setLimits(width, HEIGHT);
+    }
+}
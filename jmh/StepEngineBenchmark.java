@@ -0,0 +1,53 @@
+package kaleidoscope;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures a whole Model step with each StepEngine, chosen by the name
+ * --engine takes: the scalar loop, the Vector API, and fork-join with
+ * the default grain size, whose chunks are stepped with the Vector API
+ * when it is there. The vector engine can only be measured when the
+ * JVM was started with <code>--add-modules jdk.incubator.vector</code>.
+ */
+@State(Scope.Thread)
+public class StepEngineBenchmark {
+
+    @Param({"serial", "vector", "fj"})
+    public String engine;
+
+    @Param({"100000", "1000000", "10000000"})
+    public int count;
+
+    private Model model;
+
+    /**
+     * Makes the model and gives it the engine
+     */
+    @Setup
+    public void setUp() {
+        model = new Model(count);
+        model.setLimits(600, 600);
+        model.setStepEngine(StepEngines.named(engine, ForkJoinStepEngine.DEFAULT_GRAIN_SIZE));
+    }
+
+    /**
+     * Lets go of the model before the next trial makes another
+     */
+    @TearDown
+    public void tearDown() {
+        model = null;
+    }
+
+    /**
+     * Steps every figure once
+     */
+    @Benchmark
+    public void makeOneStep() {
+        model.makeOneStep();
+    }
+}
@@ -0,0 +1,67 @@
+package kaleidoscope;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the View painting 15 figures into an offscreen 600x600
+ * BufferedImage. Only figures of one type are painted, so that each
+ * type's cost can be seen, and they are painted via one of three routes:
+ * Java2D fills, the sprite cache, or the software rasterizer.
+ */
+@State(Scope.Thread)
+public class ViewBenchmark {
+    private static final int WIDTH = 600;
+    private static final int HEIGHT = 600;
+
+    @Param({"ball", "rect", "tri"})
+    public String type;
+
+    @Param({"fill", "sprites", "raster"})
+    public String via;
+
+    private View view;
+    private Graphics graphics;
+
+    /**
+     * Makes the view and the image it paints into
+     */
+    @Setup
+    public void setUp() {
+        Model model = new Model(15);
+        model.setLimits(WIDTH, HEIGHT);
+        view = new View(model);
+        for (FigureType other : FigureType.ALL) {
+            if (!other.getName().equals(type)) {
+                view.registerRenderer(other, null);
+            }
+        }
+        view.setSpritesEnabled(via.equals("sprites"));
+        view.setRasterEnabled(via.equals("raster"));
+        view.setSize(WIDTH, HEIGHT);
+        graphics = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB).createGraphics();
+    }
+
+    /**
+     * Disposes of the image's graphics
+     */
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    /**
+     * Paints one whole frame
+     */
+    @Benchmark
+    public void paint() {
+        view.paint(graphics);
+    }
+}
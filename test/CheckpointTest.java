@@ -0,0 +1,212 @@
+package kaleidoscope;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that a Model restored from a checkpoint carries on exactly as
+ * the saved one does, and that damaged checkpoints are rejected.
+ */
+class CheckpointTest {
+    @TempDir
+    File directory;
+
+    @Test
+    void restoredModelStepsLikeTheOriginal() throws IOException {
+        Model original = runningModel(false);
+        File file = new File(directory, "model.ckpt");
+        original.saveCheckpoint(file);
+        Model restored = Model.restoreCheckpoint(file);
+        assertSameModels(original, restored, "after restoring");
+
+        for (int i = 0; i < 200; i++) {
+            original.makeOneStep();
+            restored.makeOneStep();
+        }
+        assertSameModels(original, restored, "200 steps after restoring");
+
+        // New figures are placed at random, so these come from the restored random state
+        original.addFigures(FigureType.BALL, 25);
+        restored.addFigures(FigureType.BALL, 25);
+        original.addFigures(FigureType.TRI, 10);
+        restored.addFigures(FigureType.TRI, 10);
+        assertSameModels(original, restored, "after adding figures");
+    }
+
+    @Test
+    void restoredModelCollidesLikeTheOriginal() throws IOException {
+        Model original = runningModel(true);
+        File file = new File(directory, "colliding.ckpt");
+        original.saveCheckpoint(file);
+        Model restored = Model.restoreCheckpoint(file);
+
+        for (int i = 0; i < 100; i++) {
+            original.makeOneStep();
+            restored.makeOneStep();
+        }
+        assertTrue(restored.isCollisionsEnabled());
+        assertSameModels(original, restored, "100 colliding steps after restoring");
+    }
+
+    @Test
+    void restoredRandomGivesTheSameSequence() {
+        SeededRandom original = new SeededRandom(1234);
+        for (int i = 0; i < 17; i++) {
+            original.nextInt(600);
+        }
+        SeededRandom restored = new SeededRandom();
+        restored.setState(original.getState());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(original.nextInt(600), restored.nextInt(600));
+            assertEquals(original.nextLong(), restored.nextLong());
+            assertEquals(original.nextDouble(), restored.nextDouble());
+        }
+    }
+
+    @Test
+    void emptyModelRoundTrips() throws IOException {
+        Model original = new Model(0, 5);
+        original.setLimits(640, 480);
+        File file = new File(directory, "empty.ckpt");
+        original.saveCheckpoint(file);
+        Model restored = Model.restoreCheckpoint(file);
+        assertSameModels(original, restored, "after restoring");
+        original.addFigures(FigureType.RECT, 3);
+        restored.addFigures(FigureType.RECT, 3);
+        assertSameModels(original, restored, "after adding figures");
+    }
+
+    @Test
+    void truncatedCheckpointIsRejected() throws IOException {
+        File file = new File(directory, "truncated.ckpt");
+        runningModel(false).saveCheckpoint(file);
+        long size = file.length();
+        long[] sizes = {size - 1, size - 300, Checkpoint.HEADER_SIZE, Checkpoint.HEADER_SIZE - 1, 0};
+        for (long truncated : sizes) {
+            truncate(file, truncated);
+            assertThrows(IOException.class, restoring(file), "Truncated to " + truncated);
+        }
+    }
+
+    @Test
+    void checkpointOfAnotherVersionIsRejected() throws IOException {
+        File file = new File(directory, "version.ckpt");
+        runningModel(false).saveCheckpoint(file);
+        overwriteInt(file, 4, Checkpoint.VERSION + 1);
+        IOException e = assertThrows(IOException.class, restoring(file));
+        assertTrue(e.getMessage().contains("version " + (Checkpoint.VERSION + 1)), e.getMessage());
+    }
+
+    @Test
+    void fileThatIsNotACheckpointIsRejected() throws IOException {
+        File file = new File(directory, "magic.ckpt");
+        runningModel(false).saveCheckpoint(file);
+        overwriteInt(file, 0, 0x12345678);
+        assertThrows(IOException.class, restoring(file));
+    }
+
+    /**
+     * Makes a seeded model that has been running for a while, with its
+     * speed changed and some figures removed
+     * @param collisions Whether the figures collide with each other
+     * @return The model, paused
+     */
+    private static Model runningModel(boolean collisions) {
+        Model model = new Model(500, 77);
+        model.setLimits(800, 600);
+        model.setCollisionsEnabled(collisions);
+        for (int i = 0; i < 50; i++) {
+            model.makeOneStep();
+        }
+        model.changeVelocity(1.5f);
+        model.removeFigures(FigureType.RECT, 7);
+        for (int i = 0; i < 30; i++) {
+            model.makeOneStep();
+        }
+        return model;
+    }
+
+    /**
+     * Makes an action that restores a model from a checkpoint
+     * @param file The checkpoint
+     * @return The action
+     */
+    private static Executable restoring(final File file) {
+        return new Executable() {
+            @Override
+            public void execute() throws IOException {
+                Model.restoreCheckpoint(file);
+            }
+        };
+    }
+
+    /**
+     * Cuts a file short
+     * @param file The file
+     * @param size Its new size in bytes
+     */
+    private static void truncate(File file, long size) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        try {
+            channel.truncate(size);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Replaces a little-endian int in a file
+     * @param file The file
+     * @param offset The byte offset of the int
+     * @param value The new value
+     */
+    private static void overwriteInt(File file, long offset, int value) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(value).flip();
+            channel.write(buffer, offset);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Checks that two models are in the same state
+     * @param expected The original model
+     * @param actual The restored model
+     * @param when When they are compared, for the failure message
+     */
+    private static void assertSameModels(Model expected, Model actual, String when) {
+        assertEquals(expected.getTick(), actual.getTick(), "tick " + when);
+        assertEquals(expected.getSpeedFactor(), actual.getSpeedFactor(), "speed factor " + when);
+        assertEquals(expected.isCollisionsEnabled(), actual.isCollisionsEnabled(), "collisions " + when);
+        assertEquals(expected.getFigureCount(), actual.getFigureCount(), "figure count " + when);
+        for (int i = 0; i < expected.getFigureCount(); i++) {
+            Figure e = expected.getFigure(i);
+            Figure a = actual.getFigure(i);
+            String where = "figure " + i + " " + when;
+            assertEquals(e.getType(), a.getType(), where + ", type");
+            assertEquals(e.getXPosition(), a.getXPosition(), where + ", x");
+            assertEquals(e.getYPosition(), a.getYPosition(), where + ", y");
+            assertEquals(e.getXDelta(), a.getXDelta(), where + ", x delta");
+            assertEquals(e.getYDelta(), a.getYDelta(), where + ", y delta");
+            assertEquals(e.getInitXDelta(), a.getInitXDelta(), where + ", initial x delta");
+            assertEquals(e.getInitYDelta(), a.getInitYDelta(), where + ", initial y delta");
+            assertEquals(e.getXLimit(), a.getXLimit(), where + ", x limit");
+            assertEquals(e.getYLimit(), a.getYLimit(), where + ", y limit");
+        }
+    }
+}
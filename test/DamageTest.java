@@ -0,0 +1,198 @@
+package kaleidoscope;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Rectangle;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that a few figures spread over a large display damage only a
+ * small part of it, and that the View repaints only that part.
+ */
+class DamageTest {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    /** Where the figures are put: near the corners and the middle. */
+    private static final int[][] PLACES = {
+        {60, 40}, {1600, 60}, {80, 880}, {1650, 900}, {900, 500}, {400, 300}
+    };
+
+    @Test
+    void sparseFiguresDamageLittleOfTheDisplay() {
+        Damage damage = stepSparseScene();
+        long area = damage.area(WIDTH, HEIGHT);
+
+        assertFalse(damage.isFull());
+        assertTrue(damage.getRegionCount() > 1);
+        // 48 copies of figures moved, and they cover about a fifth of the display
+        assertTrue(area < 0.25 * WIDTH * HEIGHT, "Damaged " + area + " of " + WIDTH * HEIGHT + " pixels");
+        // One rectangle around all the damage would be most of the display
+        int left = Integer.MAX_VALUE;
+        int top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE;
+        int bottom = Integer.MIN_VALUE;
+        for (int i = 0; i < damage.getRegionCount(); i++) {
+            left = Math.min(left, damage.getX(i));
+            top = Math.min(top, damage.getY(i));
+            right = Math.max(right, damage.getX(i) + damage.getWidth(i));
+            bottom = Math.max(bottom, damage.getY(i) + damage.getHeight(i));
+        }
+        assertTrue((long) (right - left) * (bottom - top) > 0.5 * WIDTH * HEIGHT);
+    }
+
+    @Test
+    void regionsDoNotOverlapAndCoverEveryRectangle() {
+        Damage damage = new Damage();
+        damage.clear();
+        int[][] added = new int[200][];
+        SeededRandom rand = new SeededRandom(7);
+        for (int n = 0; n < added.length; n++) {
+            int x = rand.nextInt(WIDTH);
+            int y = rand.nextInt(HEIGHT);
+            added[n] = new int[] {x, y, x + 1 + rand.nextInt(120), y + 1 + rand.nextInt(120)};
+            damage.add(added[n][0], added[n][1], added[n][2], added[n][3]);
+        }
+
+        assertTrue(damage.getRegionCount() <= Damage.MAX_REGIONS);
+        for (int i = 0; i < damage.getRegionCount(); i++) {
+            for (int j = i + 1; j < damage.getRegionCount(); j++) {
+                assertFalse(damage.getX(i) < damage.getX(j) + damage.getWidth(j)
+                        && damage.getX(j) < damage.getX(i) + damage.getWidth(i)
+                        && damage.getY(i) < damage.getY(j) + damage.getHeight(j)
+                        && damage.getY(j) < damage.getY(i) + damage.getHeight(i),
+                        "Regions " + i + " and " + j + " overlap");
+            }
+        }
+        for (int[] r : added) {
+            boolean covered = false;
+            for (int i = 0; i < damage.getRegionCount() && !covered; i++) {
+                covered = damage.getX(i) <= r[0] && damage.getY(i) <= r[1]
+                        && r[2] <= damage.getX(i) + damage.getWidth(i) && r[3] <= damage.getY(i) + damage.getHeight(i);
+            }
+            assertTrue(covered, "A rectangle added is not inside any region");
+        }
+    }
+
+    @Test
+    void viewRepaintsOnlyTheDamage() throws InterruptedException, InvocationTargetException {
+        Damage damage = stepSparseScene();
+        RecordingView view = new RecordingView(new Model(0));
+        view.setSize(WIDTH, HEIGHT);
+        view.fullRepaints = 0;
+
+        view.tickCompleted(2, 0, damage);
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                // Waits for the View's regions to be painted
+            }
+        });
+
+        assertEquals(0, view.fullRepaints);
+        assertEquals(damage.getRegionCount(), view.regionsPainted);
+        assertEquals(damage.area(WIDTH, HEIGHT), view.areaPainted);
+        assertTrue(view.areaPainted < 0.25 * WIDTH * HEIGHT);
+    }
+
+    @Test
+    void viewRepaintsTheOverlayWithTheDamage() throws InterruptedException, InvocationTargetException {
+        Damage damage = stepSparseScene();
+        RecordingView view = new RecordingView(new Model(0));
+        view.setSize(WIDTH, HEIGHT);
+        view.setOverlayEnabled(true);
+        view.fullRepaints = 0;
+
+        view.tickCompleted(2, 0, damage);
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                // Waits for the View's regions to be painted
+            }
+        });
+
+        int overlayHeight = View.OVERLAY_LINES * view.getFontMetrics(view.getFont()).getHeight() + 6;
+        assertEquals(0, view.fullRepaints);
+        assertTrue(view.covered(0, 0, View.OVERLAY_WIDTH, overlayHeight), "overlay not repainted");
+        assertTrue(view.areaPainted < 0.25 * WIDTH * HEIGHT);
+    }
+
+    /**
+     * Steps a few figures spread over a large display
+     * @return The damage of the second step
+     */
+    private static Damage stepSparseScene() {
+        Model model = new Model(PLACES.length, 3);
+        model.setLimits(WIDTH, HEIGHT);
+        for (int i = 0; i < PLACES.length; i++) {
+            model.getFigure(i).setXPosition(PLACES[i][0]);
+            model.getFigure(i).setYPosition(PLACES[i][1]);
+        }
+        model.makeOneStep();
+        model.acquireSnapshot();
+        model.makeOneStep();
+        return model.acquireSnapshot().damage;
+    }
+
+    /**
+     * A View that records what it is asked to repaint, instead of painting.
+     */
+    @SuppressWarnings("serial")
+    private static final class RecordingView extends View {
+        int fullRepaints;
+        int regionsPainted;
+        long areaPainted;
+        final List<Rectangle> regions = new ArrayList<Rectangle>();
+
+        RecordingView(Model model) {
+            super(model);
+        }
+
+        @Override
+        public boolean isShowing() {
+            return true;
+        }
+
+        @Override
+        public void repaint(long tm, int x, int y, int width, int height) {
+            if (x <= 0 && y <= 0 && width >= getWidth() && height >= getHeight()) {
+                fullRepaints++;
+            }
+        }
+
+        @Override
+        public void paintImmediately(int x, int y, int w, int h) {
+            regionsPainted++;
+            regions.add(new Rectangle(x, y, w, h));
+            long visibleWidth = Math.min(x + w, getWidth()) - Math.max(x, 0);
+            long visibleHeight = Math.min(y + h, getHeight()) - Math.max(y, 0);
+            if (visibleWidth > 0 && visibleHeight > 0) {
+                areaPainted += visibleWidth * visibleHeight;
+            }
+        }
+
+        /**
+         * Tells whether a rectangle lies inside one of the regions painted
+         * @param x The left of the rectangle
+         * @param y The top of the rectangle
+         * @param width The width of the rectangle
+         * @param height The height of the rectangle
+         * @return true if it does
+         */
+        boolean covered(int x, int y, int width, int height) {
+            for (Rectangle region : regions) {
+                if (region.contains(x, y, width, height)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
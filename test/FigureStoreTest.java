@@ -0,0 +1,134 @@
+package kaleidoscope;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the structure-of-arrays FigureStore steps figures exactly
+ * as the original one-object-per-figure Figure.makeOneStep did.
+ */
+class FigureStoreTest {
+    private static final int COUNT = 5000;
+    private static final int STEPS = 300;
+
+    @Test
+    void stepEqualsTheOriginalFigureLoop() {
+        FigureStore store = StepEngineTest.seededStore(COUNT);
+        OriginalFigure[] figures = originalFigures(store);
+        for (int step = 0; step < STEPS; step++) {
+            store.step(0, COUNT);
+            for (OriginalFigure figure : figures) {
+                figure.makeOneStep();
+            }
+        }
+        assertSame(figures, store);
+    }
+
+    @Test
+    void figureStepsOnlyItself() {
+        FigureStore store = StepEngineTest.seededStore(COUNT);
+        OriginalFigure[] figures = originalFigures(store);
+        for (int step = 0; step < STEPS; step++) {
+            for (int i = 0; i < COUNT; i += 2) {
+                new Figure(store, i).makeOneStep();
+                figures[i].makeOneStep();
+            }
+        }
+        assertSame(figures, store);
+    }
+
+    /**
+     * Copies the figures in a store into the original kind of figure
+     * @param store The store to copy
+     * @return One figure per figure in the store
+     */
+    private static OriginalFigure[] originalFigures(FigureStore store) {
+        OriginalFigure[] figures = new OriginalFigure[store.size];
+        for (int i = 0; i < store.size; i++) {
+            OriginalFigure figure = new OriginalFigure();
+            figure.setXPosition(store.xPosition[i]);
+            figure.setYPosition(store.yPosition[i]);
+            figure.setXDelta(store.xDelta[i]);
+            figure.setYDelta(store.yDelta[i]);
+            figure.xLimit = store.xLimit[i];
+            figure.yLimit = store.yLimit[i];
+            figures[i] = figure;
+        }
+        return figures;
+    }
+
+    /**
+     * Checks that a store holds the same figures as an array of the
+     * original kind
+     * @param expected The original figures
+     * @param store The store
+     */
+    private static void assertSame(OriginalFigure[] expected, FigureStore store) {
+        for (int i = 0; i < expected.length; i++) {
+            String where = "figure " + i;
+            assertEquals(expected[i].getXPosition(), store.xPosition[i], where + ", x");
+            assertEquals(expected[i].getYPosition(), store.yPosition[i], where + ", y");
+            assertEquals(expected[i].getXDelta(), store.xDelta[i], where + ", x delta");
+            assertEquals(expected[i].getYDelta(), store.yDelta[i], where + ", y delta");
+        }
+    }
+
+    /**
+     * A figure stepped the way Figure was before its state moved into a
+     * FigureStore, copied from that version.
+     */
+    private static final class OriginalFigure {
+        private int xPosition;
+        private int yPosition;
+        private int xDelta;
+        private int yDelta;
+        int xLimit;
+        int yLimit;
+
+        void setXPosition(int xPos) {
+            xPosition = xPos;
+        }
+
+        int getXPosition() {
+            return xPosition;
+        }
+
+        void setYPosition(int yPos) {
+            yPosition = yPos;
+        }
+
+        int getYPosition() {
+            return yPosition;
+        }
+
+        void setXDelta(int xDel) {
+            xDelta = xDel;
+        }
+
+        int getXDelta() {
+            return xDelta;
+        }
+
+        void setYDelta(int yDel) {
+            yDelta = yDel;
+        }
+
+        int getYDelta() {
+            return yDelta;
+        }
+
+        void makeOneStep() {
+            setXPosition(getXPosition() + getXDelta());
+            if (getXPosition() < 0 || getXPosition() >= xLimit) {
+                setXDelta(-1 * getXDelta());
+                setXPosition(getXPosition() + getXDelta());
+            }
+            setYPosition(getYPosition() + getYDelta());
+            if (getYPosition() < 0 || getYPosition() >= yLimit) {
+                setYDelta(-1 * getYDelta());
+                setYPosition(getYPosition() + getYDelta());
+            }
+        }
+    }
+}
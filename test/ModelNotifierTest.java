@@ -0,0 +1,170 @@
+package kaleidoscope;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that a Model's listeners are told of its changes without
+ * holding up the thread that steps it.
+ */
+class ModelNotifierTest {
+
+    @Test
+    void sleepingListenerDoesNotSlowTheTickRate() throws InterruptedException {
+        Model model = new Model(100, 1);
+        model.setLimits(600, 600);
+        SleepingListener listener = new SleepingListener(200);
+        model.addModelListener(listener);
+
+        model.start();
+        Thread.sleep(1000);
+        model.pause();
+        long ticks = model.getTick();
+
+        // 25 ticks a second; told of each tick in turn, the listener would allow 5
+        assertTrue(ticks >= 15, "Only " + ticks + " ticks in a second");
+        assertTrue(listener.awaitTick(ticks, 5000), "The listener was never told of the last tick");
+        assertTrue(listener.calls < ticks, "The listener was told of every tick");
+    }
+
+    @Test
+    void skippedTicksHaveNoDamage() throws InterruptedException {
+        Model model = new Model(100, 1);
+        model.setLimits(600, 600);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReferenceArray<Damage> seen = new AtomicReferenceArray<Damage>(10);
+        model.addModelListener(new SleepingListener(0) {
+            @Override
+            public void tickCompleted(long tick, long stepNanos, Damage damage) {
+                seen.set((int) tick, damage);
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.tickCompleted(tick, stepNanos, damage);
+            }
+        });
+        SleepingListener last = new SleepingListener(0);
+        model.addModelListener(last);
+
+        model.makeOneStep();
+        assertTrue(waitFor(seen, 1), "The listener was never told of tick 1");
+        for (int i = 2; i <= 5; i++) {
+            model.makeOneStep();
+        }
+        release.countDown();
+
+        assertTrue(last.awaitTick(5, 5000), "The listener was never told of tick 5");
+        assertNotNull(seen.get(1));
+        assertNull(seen.get(5), "Ticks 2 to 4 were skipped, so the damage of tick 5 doesn't cover them");
+    }
+
+    @Test
+    void tickingAllocatesNothing() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean, "This JVM can't count allocated bytes");
+        com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+        long thread = Thread.currentThread().getId();
+
+        ModelListeners listeners = new ModelListeners();
+        listeners.add(new SleepingListener(1));
+        ModelNotifier notifier = new ModelNotifier(listeners);
+        Damage damage = new Damage();
+        damage.clear();
+        damage.addFigure(10, 20, 100, 100, 600, 600);
+
+        // Warm up, which also starts the notifier thread
+        for (int i = 0; i < 20000; i++) {
+            notifier.tickCompleted(i, 1000, damage);
+        }
+        long before = allocation.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 10000; i++) {
+            notifier.tickCompleted(i, 1000, damage);
+        }
+        assertEquals(0, allocation.getThreadAllocatedBytes(thread) - before, "Bytes allocated passing on ticks");
+    }
+
+    /**
+     * Waits for a slot of an array to be filled
+     * @param seen The array
+     * @param index The slot
+     * @return true if it was filled within 5 seconds
+     */
+    private static boolean waitFor(AtomicReferenceArray<Damage> seen, int index) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (seen.get(index) == null && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        return seen.get(index) != null;
+    }
+
+    /**
+     * A listener that takes its time over every tick.
+     */
+    private static class SleepingListener implements ModelListener {
+        private final long sleepMillis;
+        volatile long latestTick;
+        volatile int calls;
+
+        SleepingListener(long sleepMillis) {
+            this.sleepMillis = sleepMillis;
+        }
+
+        @Override
+        public void tickCompleted(long tick, long stepNanos, Damage damage) {
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            calls++;
+            latestTick = tick;
+        }
+
+        /**
+         * Waits for the listener to be told of a tick
+         * @param tick The tick to wait for
+         * @param timeoutMillis How long to wait
+         * @return true if it was told of the tick in time
+         */
+        boolean awaitTick(long tick, long timeoutMillis) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (latestTick < tick && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            return latestTick >= tick;
+        }
+
+        @Override
+        public void limitsChanged(int width, int height) {
+        }
+
+        @Override
+        public void velocityChanged(float speedFactor) {
+        }
+
+        @Override
+        public void figuresAdded(int from, int to) {
+        }
+
+        @Override
+        public void figuresRemoved(int from, int to) {
+        }
+
+        @Override
+        public void recordingStopped(Exception cause) {
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package kaleidoscope;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the software rasterizer paints exactly the pixels that
+ * Java2D does, for a fixed seeded scene of all three figure types,
+ * including copies cut off by the edges of the display and the clip.
+ */
+class RasterRendererTest {
+    /** Not a multiple of the tile size, so some tiles are cut short. */
+    static final int WIDTH = 777;
+    static final int HEIGHT = 555;
+
+    @Test
+    void rasterMatchesJava2D() {
+        Model model = seededModel();
+        Snapshot snapshot = snapshotOf(model);
+        SceneRenderer raster = new SceneRenderer(model);
+        raster.setRasterEnabled(true);
+
+        assertSamePixels(paint(new SceneRenderer(model), snapshot, null),
+                paint(raster, snapshot, null), "the whole display");
+    }
+
+    @Test
+    void clippedRasterMatchesJava2D() {
+        Model model = seededModel();
+        Snapshot snapshot = snapshotOf(model);
+        SceneRenderer raster = new SceneRenderer(model);
+        raster.setRasterEnabled(true);
+        int[][] clips = {{0, 0, 1, 1}, {13, 29, 200, 77}, {500, 400, 400, 400}, {-20, -20, 100, 700}};
+        for (int[] clip : clips) {
+            assertSamePixels(paint(new SceneRenderer(model), snapshot, clip),
+                    paint(raster, snapshot, clip), "clip " + clip[0] + "," + clip[1]);
+        }
+    }
+
+    /**
+     * Makes a seeded scene of all three figure types that has been
+     * stepped for a while, so the figures are all over the display
+     * @return The model
+     */
+    static Model seededModel() {
+        Model model = new Model(120, 2024);
+        model.setLimits(WIDTH, HEIGHT);
+        for (int i = 0; i < 137; i++) {
+            model.makeOneStep();
+        }
+        return model;
+    }
+
+    /**
+     * Copies the model's figures into a snapshot of the test's own
+     * @param model The model
+     * @return The snapshot
+     */
+    static Snapshot snapshotOf(Model model) {
+        Snapshot snapshot = new Snapshot();
+        model.copyTo(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Paints a snapshot into a new image, as the HeadlessRenderer does
+     * @param scene The renderer to paint with
+     * @param snapshot The figures to paint
+     * @param clip The x, y, width and height of the clip, or null for none
+     * @return The image
+     */
+    static BufferedImage paint(SceneRenderer scene, Snapshot snapshot, int[] clip) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            if (clip != null) {
+                g.setClip(clip[0], clip[1], clip[2], clip[3]);
+            }
+            scene.paint(g, snapshot, WIDTH, HEIGHT);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Checks that two images are the same, pixel for pixel
+     * @param expected The image painted by Java2D
+     * @param actual The image painted by the rasterizer
+     * @param what What was painted, for the failure message
+     */
+    static void assertSamePixels(BufferedImage expected, BufferedImage actual, String what) {
+        int[] e = expected.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+        int[] a = actual.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+        int differences = 0;
+        int first = -1;
+        for (int i = 0; i < e.length; i++) {
+            if (e[i] != a[i]) {
+                differences++;
+                if (first < 0) {
+                    first = i;
+                }
+            }
+        }
+        assertEquals(0, differences, "Pixels differing in " + what
+                + (first < 0 ? "" : ", the first at (" + first % WIDTH + ", " + first / WIDTH + ")"));
+    }
+}
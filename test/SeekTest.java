@@ -0,0 +1,169 @@
+package kaleidoscope;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that Model.seek puts every figure exactly where stepping the
+ * same number of times would.
+ */
+class SeekTest {
+    private static final int SIZE = 600;
+    private static final int FIGURES = 30;
+
+    @Test
+    void seekingEqualsStepping() {
+        Model seeking = edgeCaseModel();
+        Model stepping = edgeCaseModel();
+        long[] checks = {0, 1, 2, 3, 7, 100, 999, 1000, 4321};
+        int next = 0;
+        for (long tick = 0; next < checks.length; tick++) {
+            if (tick == checks[next]) {
+                seeking.seek(tick);
+                assertSameFigures(stepping, seeking, "tick " + tick);
+                next++;
+            }
+            stepping.makeOneStep();
+        }
+    }
+
+    @Test
+    void seekingBackAndForthEqualsStepping() {
+        Model seeking = edgeCaseModel();
+        Model stepping = edgeCaseModel();
+        for (int i = 0; i < 500; i++) {
+            stepping.makeOneStep();
+        }
+        seeking.seek(2000);
+        seeking.seek(500);
+        assertSameFigures(stepping, seeking, "tick 500, after seeking past it");
+        seeking.seek(0);
+        assertSameFigures(edgeCaseModel(), seeking, "tick 0, after seeking back");
+    }
+
+    @Test
+    void seekingFarAheadDoesNotOverflow() {
+        long[] ticks = {Long.MAX_VALUE, Long.MAX_VALUE - 1, Long.MAX_VALUE / 3, 1L << 62, 3037000500L};
+        for (long tick : ticks) {
+            Model model = edgeCaseModel();
+            Model start = edgeCaseModel();
+            model.seek(tick);
+            for (int i = 0; i < FIGURES; i++) {
+                Figure from = start.getFigure(i);
+                Figure to = model.getFigure(i);
+                String where = "figure " + i + " at tick " + tick;
+                assertEquals(stepAxis(from.getXPosition(), from.getXDelta(), from.getXLimit(), tick),
+                        ((long) to.getXPosition() << 32) | (to.getXDelta() & 0xffffffffL), where + ", x");
+                assertEquals(stepAxis(from.getYPosition(), from.getYDelta(), from.getYLimit(), tick),
+                        ((long) to.getYPosition() << 32) | (to.getYDelta() & 0xffffffffL), where + ", y");
+            }
+        }
+    }
+
+    /**
+     * Makes a seeded model of all three figure types, in a 600x600
+     * display, with some figures set up on the edge cases of seeking:
+     * on a wall, standing still, faster than the room they have to
+     * move in, and outside their limits
+     * @return The model, at tick 0
+     */
+    private static Model edgeCaseModel() {
+        Model model = new Model(FIGURES, 42);
+        model.setLimits(SIZE, SIZE);
+        for (int type = 0; type < 3; type++) {
+            // Figures type, type + 3, ... are all of the same type
+            Figure onLeftWall = model.getFigure(type);
+            onLeftWall.setXPosition(0);
+            onLeftWall.setXDelta(-3);
+            Figure onRightWall = model.getFigure(type + 3);
+            onRightWall.setXPosition(onRightWall.getXLimit());
+            onRightWall.setYPosition(onRightWall.getYLimit() - 1);
+            onRightWall.setYDelta(1);
+            Figure still = model.getFigure(type + 6);
+            still.setXDelta(0);
+            still.setYDelta(0);
+            Figure tooFast = model.getFigure(type + 9);
+            tooFast.setXDelta(tooFast.getXLimit() + 57);
+            tooFast.setYDelta(-2 * tooFast.getYLimit() - 1);
+            Figure justTooFast = model.getFigure(type + 12);
+            justTooFast.setXDelta(justTooFast.getXLimit());
+            justTooFast.setYDelta(justTooFast.getYLimit() - 1);
+            Figure outside = model.getFigure(type + 15);
+            outside.setXPosition(-7);
+            outside.setXDelta(2);
+            outside.setYPosition(-7);
+            outside.setYDelta(-2);
+            Figure farOutside = model.getFigure(type + 18);
+            farOutside.setXPosition(-500);
+            farOutside.setXDelta(3);
+        }
+        // A change of limits makes seek start from the figures as they are now
+        model.setLimits(SIZE + 1, SIZE + 1);
+        model.setLimits(SIZE, SIZE);
+        return model;
+    }
+
+    /**
+     * Steps one figure along one axis, the way Figure.makeOneStep always
+     * has, but taking a shortcut through the steps that repeat
+     * @param pos The position to start from
+     * @param delta The velocity to start from
+     * @param limit The limit of the position
+     * @param steps The number of steps to take
+     * @return The position after the steps, in the high 32 bits, and
+     * the velocity, in the low 32 bits
+     */
+    private static long stepAxis(int pos, int delta, int limit, long steps) {
+        // Within two steps a figure is inside its limits, or never will be
+        for (int i = 0; i < 2 && steps > 0; i++, steps--) {
+            pos += delta;
+            if (pos < 0 || pos >= limit) {
+                delta = -delta;
+                pos += delta;
+            }
+        }
+        // From here on the steps repeat, so find how often
+        int startPos = pos;
+        int startDelta = delta;
+        long period = 0;
+        do {
+            pos += delta;
+            if (pos < 0 || pos >= limit) {
+                delta = -delta;
+                pos += delta;
+            }
+            period++;
+        } while (pos != startPos || delta != startDelta);
+        pos = startPos;
+        delta = startDelta;
+        for (long i = steps % period; i > 0; i--) {
+            pos += delta;
+            if (pos < 0 || pos >= limit) {
+                delta = -delta;
+                pos += delta;
+            }
+        }
+        return ((long) pos << 32) | (delta & 0xffffffffL);
+    }
+
+    /**
+     * Checks that two models have their figures in the same places,
+     * moving the same ways
+     * @param expected The model stepped there
+     * @param actual The model sent there by seek
+     * @param when Where the models are, for the failure message
+     */
+    private static void assertSameFigures(Model expected, Model actual, String when) {
+        assertEquals(expected.getFigureCount(), actual.getFigureCount());
+        for (int i = 0; i < expected.getFigureCount(); i++) {
+            Figure e = expected.getFigure(i);
+            Figure a = actual.getFigure(i);
+            String where = "figure " + i + " (" + e.getType() + ") at " + when;
+            assertEquals(e.getXPosition(), a.getXPosition(), where + ", x");
+            assertEquals(e.getYPosition(), a.getYPosition(), where + ", y");
+            assertEquals(e.getXDelta(), a.getXDelta(), where + ", x delta");
+            assertEquals(e.getYDelta(), a.getYDelta(), where + ", y delta");
+        }
+    }
+}
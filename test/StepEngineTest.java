@@ -0,0 +1,107 @@
+package kaleidoscope;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that every StepEngine leaves the figures exactly as the serial
+ * loop does, on either side of the figure counts where the engines
+ * change how they step: VectorStepEngine's scalar threshold (4096) and
+ * ForkJoinStepEngine's serial threshold (64K).
+ */
+class StepEngineTest {
+    private static final int[] COUNTS = {
+        1, 7, 4095, 4096, 4097, 4096 + 13, 65535, 65536, 65537, 3 * 65536 + 5
+    };
+    private static final int STEPS = 40;
+
+    @Test
+    void forkJoinEqualsSerial() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int count : COUNTS) {
+                assertSameAsSerial(StepEngines.named("fj", ForkJoinStepEngine.DEFAULT_GRAIN_SIZE), count);
+                assertSameAsSerial(new ForkJoinStepEngine(pool, 1000, 0, new SerialStepEngine()), count);
+                assertSameAsSerial(new ForkJoinStepEngine(pool, 777, 2048, StepEngines.fastest()), count);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void vectorEqualsSerial() {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent(),
+                "Run without --add-modules jdk.incubator.vector");
+        for (int count : COUNTS) {
+            assertSameAsSerial(StepEngines.named("vector", 0), count);
+        }
+    }
+
+    @Test
+    void vectorRangesEqualSerial() {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent(),
+                "Run without --add-modules jdk.incubator.vector");
+        final StepEngine vector = StepEngines.named("vector", 0);
+        for (int count : COUNTS) {
+            // Always vectors, from an odd start, as for a chunk of a ForkJoinStepEngine
+            assertSameAsSerial(new StepEngine() {
+                @Override
+                public void step(FigureStore store, int count) {
+                    store.step(0, Math.min(3, count));
+                    vector.step(store, Math.min(3, count), count);
+                }
+
+                @Override
+                public void step(FigureStore store, int from, int to) {
+                    vector.step(store, from, to);
+                }
+            }, count);
+        }
+    }
+
+    /**
+     * Steps the same seeded figures with an engine and with the serial
+     * loop, and checks that they end up the same
+     * @param engine The engine to check
+     * @param count The number of figures
+     */
+    private static void assertSameAsSerial(StepEngine engine, int count) {
+        FigureStore expected = seededStore(count);
+        FigureStore actual = seededStore(count);
+        for (int i = 0; i < STEPS; i++) {
+            expected.step(0, count);
+            engine.step(actual, count);
+        }
+        String what = engine.getClass().getSimpleName() + " with " + count + " figures";
+        assertArrayEquals(expected.xPosition, actual.xPosition, what + ", x");
+        assertArrayEquals(expected.yPosition, actual.yPosition, what + ", y");
+        assertArrayEquals(expected.xDelta, actual.xDelta, what + ", x delta");
+        assertArrayEquals(expected.yDelta, actual.yDelta, what + ", y delta");
+    }
+
+    /**
+     * Makes figures at random, including on and outside the walls,
+     * standing still, and faster than the room they have to move in
+     * @param count The number of figures
+     * @return A store of count figures, always the same for the same count
+     */
+    static FigureStore seededStore(int count) {
+        SeededRandom rand = new SeededRandom(count);
+        FigureStore store = new FigureStore(count);
+        for (int i = 0; i < count; i++) {
+            store.add(100, 100, FigureType.ALL[i % FigureType.ALL.length]);
+            store.xLimit[i] = rand.nextInt(20) == 0 ? rand.nextInt(4) : rand.nextInt(1000);
+            store.yLimit[i] = rand.nextInt(20) == 0 ? rand.nextInt(4) : rand.nextInt(1000);
+            store.xPosition[i] = rand.nextInt(store.xLimit[i] + 20) - 10;
+            store.yPosition[i] = rand.nextInt(store.yLimit[i] + 20) - 10;
+            store.xDelta[i] = rand.nextInt(20) == 0 ? rand.nextInt(3000) - 1500 : rand.nextInt(11) - 5;
+            store.yDelta[i] = rand.nextInt(20) == 0 ? rand.nextInt(3000) - 1500 : rand.nextInt(11) - 5;
+        }
+        return store;
+    }
+}
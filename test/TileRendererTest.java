@@ -0,0 +1,64 @@
+package kaleidoscope;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that filling the raster in tiles on a ForkJoinPool paints
+ * exactly the same pixels as filling it on one thread, and as Java2D.
+ */
+class TileRendererTest {
+
+    @Test
+    void tilesMatchOneThreadAndJava2D() {
+        Model model = RasterRendererTest.seededModel();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            SceneRenderer tiled = new SceneRenderer(model);
+            tiled.setRasterEnabled(true);
+            tiled.setTilePool(pool);
+            SceneRenderer single = new SceneRenderer(model);
+            single.setRasterEnabled(true);
+            SceneRenderer java2D = new SceneRenderer(model);
+            int[][] clips = {null, {0, 0, 1, 1}, {13, 29, 200, 77}, {120, 100, 300, 300}, {500, 400, 400, 400}};
+            // Several frames, so that bins and records are reused
+            for (int frame = 0; frame < 5; frame++) {
+                Snapshot snapshot = RasterRendererTest.snapshotOf(model);
+                for (int[] clip : clips) {
+                    String what = "frame " + frame + (clip == null ? "" : ", clip " + clip[0] + "," + clip[1]);
+                    BufferedImage tiles = RasterRendererTest.paint(tiled, snapshot, clip);
+                    RasterRendererTest.assertSamePixels(RasterRendererTest.paint(single, snapshot, clip), tiles, what);
+                    RasterRendererTest.assertSamePixels(RasterRendererTest.paint(java2D, snapshot, clip), tiles, what);
+                }
+                for (int i = 0; i < 25; i++) {
+                    model.makeOneStep();
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void crowdedTilesMatchOneThread() {
+        // Far more copies than a tile's bin or the record arrays start with
+        Model model = new Model(3000, 99);
+        model.setLimits(RasterRendererTest.WIDTH, RasterRendererTest.HEIGHT);
+        model.makeOneStep();
+        Snapshot snapshot = RasterRendererTest.snapshotOf(model);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            SceneRenderer tiled = new SceneRenderer(model);
+            tiled.setRasterEnabled(true);
+            tiled.setTilePool(pool);
+            SceneRenderer single = new SceneRenderer(model);
+            single.setRasterEnabled(true);
+            RasterRendererTest.assertSamePixels(RasterRendererTest.paint(single, snapshot, null),
+                    RasterRendererTest.paint(tiled, snapshot, null), "3000 figures");
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
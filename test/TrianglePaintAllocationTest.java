@@ -0,0 +1,237 @@
+package kaleidoscope;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.image.ImageObserver;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.AttributedCharacterIterator;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that painting triangles allocates nothing per frame.
+ * <p>
+ * The frames are painted into a Graphics that only counts the
+ * triangles it is given. Java2D's own fillPolygon allocates about
+ * 24 bytes a call inside the JDK, whatever the caller does. That would
+ * hide the allocation this test is looking for: the vertex arrays and
+ * orientation lookups of SceneRenderer.fillTriangle, and the loops
+ * around it.
+ */
+class TrianglePaintAllocationTest {
+    private static final int WIDTH = 600;
+    private static final int HEIGHT = 600;
+
+    @Test
+    void paintingTrianglesAllocatesNothing() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean, "This JVM can't count allocated bytes");
+        com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+        long thread = Thread.currentThread().getId();
+
+        Model model = new Model(300, 1);
+        model.setLimits(WIDTH, HEIGHT);
+        model.makeOneStep();
+        SceneRenderer scene = new SceneRenderer(model);
+        scene.registerRenderer(FigureType.BALL, null);
+        scene.registerRenderer(FigureType.RECT, null);
+        Snapshot snapshot = model.acquireSnapshot();
+        TriangleCounter g = new TriangleCounter();
+
+        // Warm up, so that class loading and the JIT have finished
+        for (int i = 0; i < 20000; i++) {
+            scene.paint(g, snapshot, WIDTH, HEIGHT);
+        }
+        int frames = 1000;
+        g.triangles = 0;
+        long before = allocation.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < frames; i++) {
+            scene.paint(g, snapshot, WIDTH, HEIGHT);
+        }
+        long allocated = allocation.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue(g.triangles > 0, "No triangles were painted");
+        assertEquals(frames * scene.getDrawnCopies(), g.triangles);
+        assertEquals(0, allocated, "Bytes allocated painting " + frames + " frames of triangles");
+    }
+
+    /**
+     * A Graphics that draws nothing, and counts the triangles it is asked to fill.
+     */
+    private static final class TriangleCounter extends Graphics {
+        long triangles;
+        private Color color = Color.BLACK;
+
+        @Override
+        public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+            assertEquals(3, nPoints);
+            triangles++;
+        }
+
+        @Override
+        public Rectangle getClipBounds() {
+            return null; // No clip, so the whole display is painted
+        }
+
+        @Override
+        public Color getColor() {
+            return color;
+        }
+
+        @Override
+        public void setColor(Color c) {
+            color = c;
+        }
+
+        @Override
+        public Graphics create() {
+            return this;
+        }
+
+        @Override
+        public void translate(int x, int y) {
+        }
+
+        @Override
+        public void setPaintMode() {
+        }
+
+        @Override
+        public void setXORMode(Color c) {
+        }
+
+        @Override
+        public Font getFont() {
+            return null;
+        }
+
+        @Override
+        public void setFont(Font font) {
+        }
+
+        @Override
+        public FontMetrics getFontMetrics(Font f) {
+            return null;
+        }
+
+        @Override
+        public void clipRect(int x, int y, int width, int height) {
+        }
+
+        @Override
+        public void setClip(int x, int y, int width, int height) {
+        }
+
+        @Override
+        public Shape getClip() {
+            return null;
+        }
+
+        @Override
+        public void setClip(Shape clip) {
+        }
+
+        @Override
+        public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+        }
+
+        @Override
+        public void drawLine(int x1, int y1, int x2, int y2) {
+        }
+
+        @Override
+        public void fillRect(int x, int y, int width, int height) {
+        }
+
+        @Override
+        public void clearRect(int x, int y, int width, int height) {
+        }
+
+        @Override
+        public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        }
+
+        @Override
+        public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        }
+
+        @Override
+        public void drawOval(int x, int y, int width, int height) {
+        }
+
+        @Override
+        public void fillOval(int x, int y, int width, int height) {
+        }
+
+        @Override
+        public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        }
+
+        @Override
+        public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        }
+
+        @Override
+        public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints) {
+        }
+
+        @Override
+        public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        }
+
+        @Override
+        public void drawString(String str, int x, int y) {
+        }
+
+        @Override
+        public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+        }
+
+        @Override
+        public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+            return true;
+        }
+
+        @Override
+        public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
+            return true;
+        }
+
+        @Override
+        public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer) {
+            return true;
+        }
+
+        @Override
+        public boolean drawImage(Image img, int x, int y, int width, int height, Color bgcolor,
+                ImageObserver observer) {
+            return true;
+        }
+
+        @Override
+        public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2,
+                ImageObserver observer) {
+            return true;
+        }
+
+        @Override
+        public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2,
+                Color bgcolor, ImageObserver observer) {
+            return true;
+        }
+
+        @Override
+        public void dispose() {
+        }
+    }
+}
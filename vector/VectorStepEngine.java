@@ -0,0 +1,89 @@
+package kaleidoscope;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Steps the figures with the Vector API, as many at a time as the
+ * processor's widest integer vectors hold. For each lane the step is
+ * the same add, compare, negate and add as FigureStore.step, but the
+ * bounce is done with masks instead of a branch: the lanes that went
+ * out of bounds have their delta negated and added again, and the
+ * others are left alone. The figures left over at the end, too few to
+ * fill a vector, are stepped by the scalar loop, so the result is
+ * exactly the same as FigureStore.step. Below threshold figures the
+ * scalar loop is used for all of them: until the JIT compiles the
+ * vector loop, the Vector API allocates an object for every vector, and
+ * a small scene would pay that for longer than it gains. A range of
+ * figures handed out by another engine, such as a chunk of a
+ * ForkJoinStepEngine, is always stepped with vectors.
+ * <p>
+ * The Vector API is an incubator module, so this class can only be
+ * compiled and run with <code>--add-modules jdk.incubator.vector</code>.
+ * It is kept apart from the other sources, in vector/, so that they
+ * build without the flag; the Maven build adds it on JDK 16 and later.
+ * Nothing refers to it directly: StepEngines loads it by name, and
+ * falls back to a SerialStepEngine when the module isn't there.
+ */
+class VectorStepEngine implements StepEngine {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    /** Default figure count below which stepping is scalar. */
+    static final int DEFAULT_THRESHOLD = 4 * 1024;
+    private final int threshold;
+
+    /**
+     * Constructor, using the default threshold
+     */
+    VectorStepEngine() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Constructor
+     * @param threshold The figure count below which stepping is scalar
+     */
+    VectorStepEngine(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void step(FigureStore store, int count) {
+        if (count < threshold) {
+            store.step(0, count);
+        }
+        else {
+            step(store, 0, count);
+        }
+    }
+
+    @Override
+    public void step(FigureStore store, int from, int to) {
+        int upper = from + SPECIES.loopBound(to - from);
+        stepAxis(store.xPosition, store.xDelta, store.xLimit, from, upper);
+        stepAxis(store.yPosition, store.yDelta, store.yLimit, from, upper);
+        store.step(upper, to);
+    }
+
+    /**
+     * Steps one axis of whole vectors of figures
+     * @param position The positions on the axis
+     * @param delta The deltas on the axis
+     * @param limit The limits on the axis
+     * @param from The index of the first figure to step
+     * @param upper One past the index of the last figure to step, a
+     * whole number of vectors after from
+     */
+    private static void stepAxis(int[] position, int[] delta, int[] limit, int from, int upper) {
+        for (int i = from; i < upper; i += SPECIES.length()) {
+            IntVector d = IntVector.fromArray(SPECIES, delta, i);
+            IntVector pos = IntVector.fromArray(SPECIES, position, i).add(d);
+            VectorMask<Integer> out = pos.compare(VectorOperators.LT, 0)
+                    .or(pos.compare(VectorOperators.GE, IntVector.fromArray(SPECIES, limit, i)));
+            d = d.lanewise(VectorOperators.NEG, out);
+            pos.add(d, out).intoArray(position, i);
+            d.intoArray(delta, i);
+        }
+    }
+}